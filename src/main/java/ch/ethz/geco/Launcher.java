@@ -24,6 +24,9 @@ import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 /**
  * Launcher of the GECkO.
@@ -35,21 +38,8 @@ public class Launcher {
         // Init message
         logger.info("GECkO Launcher");
 
-        // Get java environment stuff
-        String javaHome = System.getProperty("java.home");
-        String javaBin = javaHome +
-                File.separator + "bin" +
-                File.separator + "java";
-        String classpath = System.getProperty("java.class.path");
-        String className = GECko.class.getCanonicalName();
-
-        // Merge args with process commands
-        String[] command = new String[4 + args.length];
-        command[0] = javaBin;
-        command[1] = "-cp";
-        command[2] = classpath;
-        command[3] = className;
-        System.arraycopy(args, 0, command, 4, args.length);
+        List<String> command = javaCommand();
+        command.addAll(Arrays.asList(args));
 
         ProcessBuilder builder = new ProcessBuilder(command);
 
@@ -80,4 +70,32 @@ public class Launcher {
             }
         }
     }
+
+    /**
+     * Returns the command which starts the bot in a new JVM.
+     */
+    private static List<String> javaCommand() {
+        // Get java environment stuff
+        String javaHome = System.getProperty("java.home");
+        String javaBin = javaHome +
+                File.separator + "bin" +
+                File.separator + "java";
+        String classpath = System.getProperty("java.class.path");
+        String className = GECko.class.getCanonicalName();
+
+        List<String> command = new ArrayList<>();
+        command.add(javaBin);
+
+        // Use the class data archive of the training run if there is one, see the Dockerfile
+        String archive = System.getProperty("gecko.cds.archive", "GECko.jsa");
+        if (new File(archive).isFile()) {
+            logger.info("[Launcher] Using class data archive " + archive);
+            command.add("-XX:SharedArchiveFile=" + archive);
+        }
+
+        command.add("-cp");
+        command.add(classpath);
+        command.add(className);
+        return command;
+    }
 }
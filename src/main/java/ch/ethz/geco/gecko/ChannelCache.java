@@ -0,0 +1,190 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org>
+ */
+
+package ch.ethz.geco.gecko;
+
+import discord4j.common.util.Snowflake;
+import discord4j.core.event.EventDispatcher;
+import discord4j.core.event.domain.channel.*;
+import discord4j.core.event.domain.guild.GuildCreateEvent;
+import discord4j.core.object.entity.channel.CategorizableChannel;
+import discord4j.core.object.entity.channel.Channel;
+import discord4j.core.object.entity.channel.GuildChannel;
+import org.jetbrains.annotations.Nullable;
+import reactor.core.publisher.Mono;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps a local index of the guild channels and categories, such that names and parents can be looked up
+ * without asking the Discord4J store or the REST API. It gets filled when the guilds become available and
+ * is kept up to date by listening to the channel events.
+ */
+public class ChannelCache {
+    /**
+     * Maps channel IDs to the metadata of the channel.
+     */
+    private static final Map<Long, ChannelInfo> channels = new ConcurrentHashMap<>();
+
+    /**
+     * Attaches the channel cache to the given {@link EventDispatcher}, such that it can listen to channel changes.
+     *
+     * @param dispatcher The {@link EventDispatcher} to attach to.
+     */
+    public static void attachTo(EventDispatcher dispatcher) {
+        // Initial population, guilds get sent right after the ready event
+        dispatcher.on(GuildCreateEvent.class).subscribe(event -> event.getGuild().getChannels().subscribe(ChannelCache::put));
+
+        // Categories
+        dispatcher.on(CategoryCreateEvent.class).subscribe(event -> put(event.getCategory()));
+        dispatcher.on(CategoryUpdateEvent.class).subscribe(event -> put(event.getCurrent()));
+        dispatcher.on(CategoryDeleteEvent.class).subscribe(event -> remove(event.getCategory().getId()));
+
+        // Text channels
+        dispatcher.on(TextChannelCreateEvent.class).subscribe(event -> put(event.getChannel()));
+        dispatcher.on(TextChannelUpdateEvent.class).subscribe(event -> put(event.getCurrent()));
+        dispatcher.on(TextChannelDeleteEvent.class).subscribe(event -> remove(event.getChannel().getId()));
+
+        // News channels
+        dispatcher.on(NewsChannelCreateEvent.class).subscribe(event -> put(event.getChannel()));
+        dispatcher.on(NewsChannelUpdateEvent.class).subscribe(event -> put(event.getCurrent()));
+        dispatcher.on(NewsChannelDeleteEvent.class).subscribe(event -> remove(event.getChannel().getId()));
+
+        // Voice channels
+        dispatcher.on(VoiceChannelCreateEvent.class).subscribe(event -> put(event.getChannel()));
+        dispatcher.on(VoiceChannelUpdateEvent.class).subscribe(event -> put(event.getCurrent()));
+        dispatcher.on(VoiceChannelDeleteEvent.class).subscribe(event -> remove(event.getChannel().getId()));
+    }
+
+    /**
+     * Adds or replaces the metadata of the given channel.
+     *
+     * @param channel the channel to index
+     */
+    public static void put(GuildChannel channel) {
+        Snowflake parentID = null;
+        if (channel instanceof CategorizableChannel) {
+            parentID = ((CategorizableChannel) channel).getCategoryId().orElse(null);
+        }
+
+        channels.put(channel.getId().asLong(), new ChannelInfo(channel.getId(), channel.getName(), parentID, channel.getType()));
+    }
+
+    /**
+     * Removes the channel with the given ID from the cache.
+     *
+     * @param channelID the ID of the removed channel
+     */
+    public static void remove(Snowflake channelID) {
+        channels.remove(channelID.asLong());
+    }
+
+    /**
+     * Returns the metadata of the given channel.
+     *
+     * @param channelID the ID of the channel
+     * @return the channel metadata or null if the channel is unknown
+     */
+    @Nullable
+    public static ChannelInfo get(Snowflake channelID) {
+        return channels.get(channelID.asLong());
+    }
+
+    /**
+     * Checks whether the given channel is a guild text channel. Channels which are not cached yet, e.g. before
+     * their guild became available, are fetched and added to the cache.
+     *
+     * @param channelID the ID of the channel
+     * @return a mono emitting whether the channel is a guild text channel, false if it does not exist
+     */
+    public static Mono<Boolean> isTextChannel(Snowflake channelID) {
+        ChannelInfo info = get(channelID);
+        if (info != null)
+            return Mono.just(info.getType() == Channel.Type.GUILD_TEXT);
+
+        return GECko.discordClient.getChannelById(channelID)
+                .ofType(GuildChannel.class)
+                .doOnNext(ChannelCache::put)
+                .map(channel -> channel.getType() == Channel.Type.GUILD_TEXT)
+                .defaultIfEmpty(false)
+                .onErrorReturn(false);
+    }
+
+    /**
+     * Returns the path of a channel in the form {@code Category > #channel}, or just {@code #channel} if it has no category.
+     *
+     * @param channelID the ID of the channel
+     * @return the path of the channel or null if the channel is unknown
+     */
+    @Nullable
+    public static String getPath(Snowflake channelID) {
+        ChannelInfo channel = get(channelID);
+        if (channel == null)
+            return null;
+
+        if (channel.getParentId() != null) {
+            ChannelInfo category = get(channel.getParentId());
+            if (category != null) {
+                return category.getName() + " > #" + channel.getName();
+            }
+        }
+
+        return "#" + channel.getName();
+    }
+
+    /**
+     * Immutable metadata of a guild channel.
+     */
+    public static class ChannelInfo {
+        private final Snowflake id;
+        private final String name;
+        private final Snowflake parentId;
+        private final Channel.Type type;
+
+        ChannelInfo(Snowflake id, String name, @Nullable Snowflake parentId, Channel.Type type) {
+            this.id = id;
+            this.name = name;
+            this.parentId = parentId;
+            this.type = type;
+        }
+
+        public Snowflake getId() {
+            return id;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Returns the ID of the category this channel is in.
+         *
+         * @return the category ID or null if the channel has no category
+         */
+        @Nullable
+        public Snowflake getParentId() {
+            return parentId;
+        }
+
+        public Channel.Type getType() {
+            return type;
+        }
+    }
+}
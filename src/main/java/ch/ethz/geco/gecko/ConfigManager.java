@@ -19,17 +19,26 @@
 
 package ch.ethz.geco.gecko;
 
-import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
-import java.io.IOException;
-import java.util.LinkedHashMap;
-import java.util.Map;
-import java.util.Properties;
-import java.util.Scanner;
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiConsumer;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
 
 /**
- * Manages all your config needs
+ * Manages all your config needs. Saving is write-behind: {@link #saveConfig()} only marks the config as changed
+ * and all changes within a short window are written together on a background thread. The file is replaced
+ * atomically, so a crash never leaves a half written config behind.
+ * <p>
+ * Reads go through an immutable {@link ConfigSnapshot} which is swapped on every change. The config file is
+ * watched, so edits made to it while the bot is running are applied live and passed on to all subscribers.
  */
 public class ConfigManager {
     /**
@@ -50,7 +59,52 @@ public class ConfigManager {
     /**
      * The bot properties.
      */
-    private static Properties properties;
+    private static Properties properties = new Properties();
+
+    /**
+     * The parsed view of the properties, rebuilt on every change.
+     */
+    private static volatile ConfigSnapshot snapshot = ConfigSnapshot.of(properties);
+
+    /**
+     * The properties as they were last read from or written to disk. Edits on disk are found by comparing against it.
+     */
+    private static Map<String, String> onDisk = new HashMap<>();
+
+    /**
+     * How long to wait for an editor to finish writing the config before reloading it.
+     */
+    private static final long RELOAD_DELAY_MILLIS = 200;
+
+    private static final List<BiConsumer<ConfigSnapshot, ConfigSnapshot>> subscribers = new CopyOnWriteArrayList<>();
+
+    /**
+     * Serializes snapshot swaps without waiting for a write in progress.
+     */
+    private static final Object updateLock = new Object();
+
+    private static Thread watcher;
+
+    /**
+     * How long to wait for further changes before writing the config.
+     */
+    private static final long SAVE_DELAY_MILLIS = 2000;
+
+    /**
+     * Whether the config changed since it was last written.
+     */
+    private static final AtomicBoolean dirty = new AtomicBoolean(false);
+
+    /**
+     * Whether a write is scheduled already.
+     */
+    private static final AtomicBoolean scheduled = new AtomicBoolean(false);
+
+    private static final ScheduledExecutorService writer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "ConfigWriter");
+        thread.setDaemon(true);
+        return thread;
+    });
 
     /**
      * Returns the properties.
@@ -61,6 +115,33 @@ public class ConfigManager {
         return properties;
     }
 
+    /**
+     * Returns the current config snapshot. This never blocks, so it can be called as often as needed.
+     *
+     * @return the current snapshot
+     */
+    public static ConfigSnapshot get() {
+        return snapshot;
+    }
+
+    /**
+     * Registers a subscriber which is called with the previous and the new snapshot whenever the config changes.
+     *
+     * @param subscriber the subscriber to call on changes
+     */
+    public static void subscribe(BiConsumer<ConfigSnapshot, ConfigSnapshot> subscriber) {
+        subscribers.add(subscriber);
+    }
+
+    /**
+     * Removes a subscriber registered with {@link #subscribe(BiConsumer)}.
+     *
+     * @param subscriber the subscriber to remove
+     */
+    public static void unsubscribe(BiConsumer<ConfigSnapshot, ConfigSnapshot> subscriber) {
+        subscribers.remove(subscriber);
+    }
+
     /**
      * Sets the path of the config to load. You most likely have to reload the config using loadConfig() after changing the config path.
      *
@@ -73,7 +154,7 @@ public class ConfigManager {
     /**
      * Loads the configuration file or creates a new one if it doesn't exist.
      */
-    public static void loadConfig() {
+    public static synchronized void loadConfig() {
         try {
             File file = new File(currentPath);
             if (!file.isFile()) {
@@ -82,26 +163,200 @@ public class ConfigManager {
                 }
             }
 
-            properties = new Properties();
+            properties = readProperties();
+            onDisk = toMap(properties);
+            update();
+        } catch (IOException e) {
+            ErrorHandler.handleError(e);
+        }
+    }
+
+    /**
+     * Starts watching the config file for changes made while the bot is running.
+     */
+    public static synchronized void watch() {
+        if (watcher != null)
+            return;
+
+        Path target = Paths.get(currentPath).toAbsolutePath();
+        WatchService watchService;
+        try {
+            watchService = target.getFileSystem().newWatchService();
+            target.getParent().register(watchService, ENTRY_CREATE, ENTRY_MODIFY);
+        } catch (IOException e) {
+            ErrorHandler.handleError(e);
+            return;
+        }
+
+        watcher = new Thread(() -> {
+            try {
+                while (true) {
+                    WatchKey key = watchService.take();
+                    boolean changed = key.pollEvents().stream().anyMatch(event -> target.getFileName().equals(event.context()));
+
+                    if (changed) {
+                        // Let the editor finish writing and swallow the events of the remaining writes
+                        Thread.sleep(RELOAD_DELAY_MILLIS);
+                        key.pollEvents();
+
+                        // The watcher has to survive whatever is in the file
+                        try {
+                            reload();
+                        } catch (RuntimeException e) {
+                            ErrorHandler.handleError(e);
+                        }
+                    }
 
-            FileInputStream inputStream = new FileInputStream(currentPath);
-            properties.load(inputStream);
-            inputStream.close();
+                    if (!key.reset())
+                        break;
+                }
+            } catch (InterruptedException ignored) {
+            }
+        }, "ConfigWatcher");
+        watcher.setDaemon(true);
+        watcher.start();
+    }
+
+    /**
+     * Applies the keys which were changed on disk since the file was last read or written. Our own writes
+     * do not change anything on disk compared to what we wrote, so they are ignored.
+     */
+    private static synchronized void reload() {
+        Map<String, String> loaded;
+        try {
+            loaded = toMap(readProperties());
         } catch (IOException e) {
             ErrorHandler.handleError(e);
+            return;
+        }
+
+        Set<String> keys = new HashSet<>(loaded.keySet());
+        keys.addAll(onDisk.keySet());
+
+        List<String> changed = new ArrayList<>();
+        for (String key : keys) {
+            if (!Objects.equals(loaded.get(key), onDisk.get(key))) {
+                changed.add(key);
+            }
+        }
+
+        onDisk = loaded;
+        if (changed.isEmpty())
+            return;
+
+        // Build the snapshot first, so the properties stay as they are if the new values cannot be applied
+        Properties next = new Properties();
+        next.putAll(properties);
+        apply(next, loaded, changed);
+        ConfigSnapshot nextSnapshot = ConfigSnapshot.of(next);
+
+        apply(properties, loaded, changed);
+        GECko.logger.info("[ConfigManager] Reloaded " + String.join(", ", changed) + " from disk.");
+        Metrics.increment("config.reloads");
+        update(nextSnapshot);
+    }
+
+    private static void apply(Properties target, Map<String, String> loaded, List<String> keys) {
+        for (String key : keys) {
+            String value = loaded.get(key);
+            if (value != null) {
+                target.setProperty(key, value);
+            } else {
+                target.remove(key);
+            }
         }
     }
 
     /**
-     * Saves the configuration file.
+     * Rebuilds the snapshot and notifies the subscribers.
+     */
+    private static void update() {
+        update(ConfigSnapshot.of(properties));
+    }
+
+    /**
+     * Replaces the snapshot and notifies the subscribers.
+     *
+     * @param next the new snapshot
+     */
+    private static void update(ConfigSnapshot next) {
+        synchronized (updateLock) {
+            ConfigSnapshot previous = snapshot;
+            snapshot = next;
+
+            for (BiConsumer<ConfigSnapshot, ConfigSnapshot> subscriber : subscribers) {
+                try {
+                    subscriber.accept(previous, snapshot);
+                } catch (Exception e) {
+                    ErrorHandler.handleError(e);
+                }
+            }
+        }
+    }
+
+    private static Properties readProperties() throws IOException {
+        Properties loaded = new Properties();
+        try (FileInputStream inputStream = new FileInputStream(currentPath)) {
+            loaded.load(inputStream);
+        }
+
+        return loaded;
+    }
+
+    private static Map<String, String> toMap(Properties properties) {
+        Map<String, String> map = new HashMap<>();
+        for (String key : properties.stringPropertyNames()) {
+            map.put(key, properties.getProperty(key));
+        }
+
+        return map;
+    }
+
+    /**
+     * Marks the configuration as changed. It is written in the background shortly after, together with
+     * all other changes made in the meantime. This never blocks on disk.
      */
     public static void saveConfig() {
-        FileOutputStream outputStream;
+        dirty.set(true);
+        Metrics.increment("config.save_requests");
+
+        if (scheduled.compareAndSet(false, true)) {
+            writer.schedule(() -> {
+                scheduled.set(false);
+                flush();
+            }, SAVE_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Writes the configuration file right away if it changed. Called on shutdown, so no change gets lost.
+     */
+    public static synchronized void flush() {
+        if (!dirty.getAndSet(false))
+            return;
+
+        long start = System.nanoTime();
+        Path target = Paths.get(currentPath);
+        Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+
+        Properties written = new Properties();
+        written.putAll(properties);
+
         try {
-            outputStream = new FileOutputStream(currentPath);
-            properties.store(outputStream, "");
-            outputStream.close();
+            try (FileOutputStream outputStream = new FileOutputStream(temp.toFile())) {
+                written.store(outputStream, "");
+                outputStream.getChannel().force(true);
+            }
+
+            Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            onDisk = toMap(written);
+
+            Metrics.increment("config.saves");
+            Metrics.add("config.save_micros", TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start));
         } catch (IOException e) {
+            // Try again with the next change or on shutdown
+            dirty.set(true);
+            Metrics.increment("config.save_failures");
             ErrorHandler.handleError(e);
         }
     }
@@ -128,11 +383,23 @@ public class ConfigManager {
     }
 
     public static String getProperty(String key) {
-        return properties.getProperty(key);
+        return snapshot.getString(key);
     }
 
     public static Object setProperty(String key, String value) {
-        return properties.setProperty(key, value);
+        Object previous = properties.setProperty(key, value);
+        if (!value.equals(previous))
+            update();
+
+        return previous;
+    }
+
+    public static Object removeProperty(String key) {
+        Object previous = properties.remove(key);
+        if (previous != null)
+            update();
+
+        return previous;
     }
 
     /**
@@ -145,9 +412,11 @@ public class ConfigManager {
                 Scanner scanner = new Scanner(System.in);
 
                 properties.setProperty(key, scanner.nextLine());
+                dirty.set(true);
             }
         }
 
-        saveConfig();
+        update();
+        flush();
     }
 }
\ No newline at end of file
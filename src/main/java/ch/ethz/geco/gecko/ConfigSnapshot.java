@@ -0,0 +1,317 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org>
+ */
+
+package ch.ethz.geco.gecko;
+
+import discord4j.common.util.Snowflake;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * An immutable, parsed view of the bot properties. A new snapshot is built whenever the config changes, so
+ * reading a value is a plain field access and IDs and durations are only parsed once. Values which cannot be
+ * parsed fall back to their default, so a typo in a hot reloaded config never takes the bot down.
+ */
+public class ConfigSnapshot {
+    private static final Pattern durationPattern = Pattern.compile("^(\\d+)(ms|s|m|h|d)?$");
+
+    /**
+     * The roles which may use admin commands if {@code main_adminRoleIDs} is not configured.
+     */
+    private static final String DEFAULT_ADMIN_ROLES = "248454555438678017,687777083044134919";
+
+    private final Map<String, String> values;
+
+    private final String token;
+    private final String defaultPrefix;
+    private final long mainChannelId;
+    private final String gecoApiKey;
+    private final Set<Snowflake> adminRoleIds;
+
+    private final long ticketChannelId;
+    private final long ticketSpawnerMessageId;
+    private final long ticketSpawnerChannelId;
+    private final Duration ticketExpiry;
+    private final int ticketDigestThreshold;
+    private final Duration ticketDigestInterval;
+
+    private final Duration voiceSpawnCooldown;
+    private final Duration voiceExpiry;
+
+    private final int streamPort;
+    private final String streamToken;
+
+    private final Duration drainTimeout;
+
+    private ConfigSnapshot(Map<String, String> values) {
+        this.values = values;
+
+        token = getString("main_token");
+        defaultPrefix = getString("main_defaultPrefix");
+        mainChannelId = getId("main_mainChannelID");
+        gecoApiKey = getString("geco_apiKey");
+        adminRoleIds = parseIds("main_adminRoleIDs", DEFAULT_ADMIN_ROLES);
+
+        ticketChannelId = getId("ticket_channel");
+        ticketSpawnerMessageId = getId("ticket_spawnerMessage");
+        ticketSpawnerChannelId = getId("ticket_spawnerChannel");
+        ticketExpiry = parseDuration("ticket_expiry", Duration.ofMinutes(5));
+        ticketDigestThreshold = (int) parseLong("ticket_digestThreshold", 5);
+        ticketDigestInterval = parseDuration("ticket_digestInterval", Duration.ofSeconds(30));
+
+        voiceSpawnCooldown = parseDuration("vcspawner_spawnCooldown", Duration.ofSeconds(5));
+        voiceExpiry = parseDuration("vcspawner_expiry", Duration.ofSeconds(10));
+
+        streamPort = (int) parseLong("stream_port", 0);
+        streamToken = getString("stream_token");
+
+        drainTimeout = parseDuration("main_drainTimeout", Duration.ofSeconds(10));
+    }
+
+    /**
+     * Builds a snapshot of the given properties.
+     *
+     * @param properties the properties to copy
+     * @return the snapshot
+     */
+    static ConfigSnapshot of(Properties properties) {
+        Map<String, String> values = new HashMap<>();
+        for (String key : properties.stringPropertyNames()) {
+            values.put(key, properties.getProperty(key));
+        }
+
+        return new ConfigSnapshot(Collections.unmodifiableMap(values));
+    }
+
+    /**
+     * Returns the raw value of the given key.
+     *
+     * @param key the key to look up
+     * @return the value or null if the key is not set
+     */
+    public String getString(String key) {
+        return values.get(key);
+    }
+
+    /**
+     * Returns whether the raw value of the given key differs between this and another snapshot.
+     *
+     * @param other the snapshot to compare with
+     * @param key   the key to compare
+     * @return whether the value changed
+     */
+    public boolean changed(ConfigSnapshot other, String key) {
+        return !Objects.equals(getString(key), other.getString(key));
+    }
+
+    public String getToken() {
+        return token;
+    }
+
+    public String getDefaultPrefix() {
+        return defaultPrefix;
+    }
+
+    public long getMainChannelId() {
+        return mainChannelId;
+    }
+
+    public String getGecoApiKey() {
+        return gecoApiKey;
+    }
+
+    /**
+     * Returns the roles which may use admin commands, configured as comma separated IDs in {@code main_adminRoleIDs}.
+     *
+     * @return the admin role IDs
+     */
+    public Set<Snowflake> getAdminRoleIds() {
+        return adminRoleIds;
+    }
+
+    /**
+     * Returns the channel where new tickets are posted.
+     *
+     * @return the channel ID or 0 if it is not set
+     */
+    public long getTicketChannelId() {
+        return ticketChannelId;
+    }
+
+    /**
+     * Returns the message of the ticket spawner.
+     *
+     * @return the message ID or 0 if there is no spawner
+     */
+    public long getTicketSpawnerMessageId() {
+        return ticketSpawnerMessageId;
+    }
+
+    /**
+     * Returns the channel of the ticket spawner.
+     *
+     * @return the channel ID or 0 if there is no spawner
+     */
+    public long getTicketSpawnerChannelId() {
+        return ticketSpawnerChannelId;
+    }
+
+    /**
+     * Returns after how long uncompleted tickets expire, configured in {@code ticket_expiry}.
+     *
+     * @return the ticket expiry
+     */
+    public Duration getTicketExpiry() {
+        return ticketExpiry;
+    }
+
+    /**
+     * Returns how many tickets may be submitted within a minute before they are posted as digests instead of one
+     * message each, configured in {@code ticket_digestThreshold}.
+     *
+     * @return the threshold or 0 if tickets are always posted right away
+     */
+    public int getTicketDigestThreshold() {
+        return ticketDigestThreshold;
+    }
+
+    /**
+     * Returns how often a digest of the submitted tickets is posted while there are many submissions, configured in
+     * {@code ticket_digestInterval}.
+     *
+     * @return the digest interval
+     */
+    public Duration getTicketDigestInterval() {
+        return ticketDigestInterval;
+    }
+
+    /**
+     * Returns how long a user has to wait between spawning voice channels, configured in {@code vcspawner_spawnCooldown}.
+     *
+     * @return the spawn cooldown
+     */
+    public Duration getVoiceSpawnCooldown() {
+        return voiceSpawnCooldown;
+    }
+
+    /**
+     * Returns after how long empty spawned voice channels are deleted, configured in {@code vcspawner_expiry}.
+     *
+     * @return the voice channel expiry
+     */
+    public Duration getVoiceExpiry() {
+        return voiceExpiry;
+    }
+
+    /**
+     * Returns the port of the event stream.
+     *
+     * @return the port or 0 if the event stream is disabled
+     */
+    public int getStreamPort() {
+        return streamPort;
+    }
+
+    public String getStreamToken() {
+        return streamToken;
+    }
+
+    /**
+     * Returns how long the shutdown waits for running commands and pending requests, configured in
+     * {@code main_drainTimeout}.
+     *
+     * @return the drain timeout
+     */
+    public Duration getDrainTimeout() {
+        return drainTimeout;
+    }
+
+    private long getId(String key) {
+        return parseLong(key, 0);
+    }
+
+    private long parseLong(String key, long defaultValue) {
+        String value = getString(key);
+        if (value == null || value.isBlank())
+            return defaultValue;
+
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            GECko.logger.warn("[ConfigSnapshot] Invalid number in " + key + ": " + value);
+            return defaultValue;
+        }
+    }
+
+    private Set<Snowflake> parseIds(String key, String defaultValue) {
+        String value = getString(key);
+        if (value == null || value.isBlank())
+            value = defaultValue;
+
+        Set<Snowflake> ids = new HashSet<>();
+        for (String id : value.split(",")) {
+            try {
+                if (!id.isBlank())
+                    ids.add(Snowflake.of(Long.parseLong(id.trim())));
+            } catch (NumberFormatException e) {
+                GECko.logger.warn("[ConfigSnapshot] Invalid ID in " + key + ": " + id);
+            }
+        }
+
+        return Collections.unmodifiableSet(ids);
+    }
+
+    /**
+     * Parses durations like {@code 300} (seconds), {@code 500ms}, {@code 30s}, {@code 5m}, {@code 2h} or {@code 1d}.
+     */
+    private Duration parseDuration(String key, Duration defaultValue) {
+        String value = getString(key);
+        if (value == null || value.isBlank())
+            return defaultValue;
+
+        Matcher matcher = durationPattern.matcher(value.trim());
+        if (!matcher.find()) {
+            GECko.logger.warn("[ConfigSnapshot] Invalid duration in " + key + ": " + value);
+            return defaultValue;
+        }
+
+        try {
+            long amount = Long.parseLong(matcher.group(1));
+            String unit = matcher.group(2) == null ? "s" : matcher.group(2);
+            switch (unit) {
+                case "ms":
+                    return Duration.ofMillis(amount);
+                case "m":
+                    return Duration.ofMinutes(amount);
+                case "h":
+                    return Duration.ofHours(amount);
+                case "d":
+                    return Duration.ofDays(amount);
+                default:
+                    return Duration.ofSeconds(amount);
+            }
+        } catch (NumberFormatException | ArithmeticException e) {
+            GECko.logger.warn("[ConfigSnapshot] Duration out of range in " + key + ": " + value);
+            return defaultValue;
+        }
+    }
+}
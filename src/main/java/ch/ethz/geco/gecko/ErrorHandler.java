@@ -19,98 +19,267 @@
 
 package ch.ethz.geco.gecko;
 
+import ch.ethz.geco.gecko.timer.Timers;
+import discord4j.core.object.entity.Message;
+import discord4j.core.spec.legacy.LegacyEmbedCreateSpec;
 import discord4j.rest.util.Color;
 
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.List;
-import java.util.*;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
- * Provides a function to handle errors in a good readable way. Additionally it stores exceptions it couldn't
- * report because of errors to try to report them later on. If everything fails, it will still report the
- * exception in the console.
+ * Provides a function to handle errors in a good readable way. Errors are grouped by a fingerprint made of the
+ * exception type and the top frames of the bot, so an error which happens over and over again is reported once
+ * with a counter instead of once per occurrence. The summaries are posted to the main channel periodically and
+ * updated in place while the error keeps happening. Full stack traces are written to the error log.
  */
 public class ErrorHandler {
     /**
-     * A buffer to store exceptions we couldn't post because D4J wasn't ready.
+     * How many frames make up the fingerprint of an error.
      */
-    private static final LinkedList<Throwable> exceptionBuffer = new LinkedList<>();
-    private static volatile boolean isTimerRunning = false;
+    private static final int FINGERPRINT_FRAMES = 3;
 
     /**
-     * Starts the timer to empty the exception buffer.
+     * How many different errors are tracked at most. If there are more, the one not seen for the longest time is dropped.
      */
-    synchronized private static void startTimer() {
-        if (!isTimerRunning) {
-            isTimerRunning = true;
-
-            new Timer().schedule(new TimerTask() {
-                @Override
-                public void run() {
-                    for (int i = 0; i < exceptionBuffer.size(); i++) {
-                        handleError(exceptionBuffer.poll());
-                    }
-                }
-            }, 2000, 1000);
-        }
+    private static final int MAX_SUMMARIES = 50;
+
+    /**
+     * How often new and changed summaries are reported.
+     */
+    private static final long REPORT_INTERVAL_SECONDS = 30;
+
+    /**
+     * Summaries of errors which did not happen for this long are dropped.
+     */
+    private static final long EXPIRY_MILLIS = TimeUnit.DAYS.toMillis(1);
+
+    /**
+     * If the last report of an error is older than this, a new message is posted instead of editing the old one.
+     */
+    private static final long REPOST_AFTER_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+    private static final DateTimeFormatter dateFormat = DateTimeFormatter.ofPattern("dd/MM/yy HH:mm:ss").withZone(ZoneId.systemDefault());
+
+    private static final Map<String, ErrorSummary> summaries = new ConcurrentHashMap<>();
+
+    static {
+        Timers.scheduleWithFixedDelay(ErrorHandler::report, REPORT_INTERVAL_SECONDS, TimeUnit.SECONDS);
     }
 
     /**
-     * Tries to report the given exception in a good readable way.
+     * Records the given exception. It is written to the error log right away and reported in the main channel
+     * with the next summary.
      *
      * @param e the exception to report
      */
     public static void handleError(Throwable e) {
         try {
+            List<StackTraceElement> trace = getRelevantTrace(e);
 
-            StackTraceElement[] stackTraceElements = e.getStackTrace();
+            StringBuilder fingerprint = new StringBuilder(e.getClass().getName());
+            for (int i = 0; i < Math.min(FINGERPRINT_FRAMES, trace.size()); i++) {
+                fingerprint.append('|').append(trace.get(i).getClassName()).append('#').append(trace.get(i).getMethodName());
+            }
 
-            List<StackTraceElement> botTrace = new ArrayList<>();
-            List<StackTraceElement> discordTrace = new ArrayList<>();
-            List<StackTraceElement> javaTrace = new ArrayList<>();
-            for (StackTraceElement stackTraceElement : stackTraceElements) {
-                if (stackTraceElement.getClassName().startsWith("ch.ethz.geco.gecko")) {
-                    botTrace.add(stackTraceElement);
-                } else if (stackTraceElement.getClassName().startsWith("sx.blah.")) {
-                    discordTrace.add(stackTraceElement);
-                } else {
-                    javaTrace.add(stackTraceElement);
-                }
+            String key = fingerprint.toString();
+            if (!summaries.containsKey(key)) {
+                evictIfFull();
             }
 
-            StringBuilder builder = new StringBuilder();
+            ErrorSummary summary = summaries.computeIfAbsent(key, k -> new ErrorSummary(k, e, trace));
 
-            List<StackTraceElement> listToUse;
-            if (botTrace.size() > 0) {
-                listToUse = botTrace;
-            } else if (discordTrace.size() > 0) {
-                listToUse = discordTrace;
+            long count = summary.record(e);
+            Metrics.increment("errors");
+
+            // Only the first occurrence in each reporting interval gets its full trace logged
+            if (count - summary.getReportedCount() == 1) {
+                GECko.logger.error("[ErrorHandler] " + summary.getTitle() + " (" + count + " times so far)", e);
             } else {
-                listToUse = javaTrace;
+                GECko.logger.error("[ErrorHandler] " + summary.getTitle() + " (repeated, " + count + " times so far)");
             }
+        } catch (Exception fatal) {
+            e.printStackTrace();
+            fatal.printStackTrace();
+        }
+    }
 
-            for (StackTraceElement traceElement : listToUse) {
-                String[] packagePath = traceElement.getClassName().split("\\.");
-                builder.append("at ").append(packagePath[packagePath.length - 1]).append(".").append(traceElement.getMethodName())
-                        .append("(").append(traceElement.getFileName()).append(":").append(traceElement.getLineNumber()).append(")").append("\n");
+    /**
+     * Returns the frames of the bot, or of Discord4J if there are none, or the whole trace otherwise.
+     *
+     * @param e the exception to look at
+     * @return the most relevant frames, top first
+     */
+    private static List<StackTraceElement> getRelevantTrace(Throwable e) {
+        List<StackTraceElement> botTrace = new ArrayList<>();
+        List<StackTraceElement> discordTrace = new ArrayList<>();
+        List<StackTraceElement> javaTrace = new ArrayList<>();
+        for (StackTraceElement stackTraceElement : e.getStackTrace()) {
+            if (stackTraceElement.getClassName().startsWith("ch.ethz.geco.gecko")) {
+                botTrace.add(stackTraceElement);
+            } else if (stackTraceElement.getClassName().startsWith("discord4j.")) {
+                discordTrace.add(stackTraceElement);
+            } else {
+                javaTrace.add(stackTraceElement);
             }
+        }
 
-            if (GECko.discordClient != null) {
-                GECko.mainChannel.createMessage(messageCreateSpec -> messageCreateSpec.setEmbed(embedCreateSpec -> embedCreateSpec
-                        .setColor(Color.of(255, 0, 0))
-                        .setTitle(e.getClass().getSimpleName() + ": " + e.getMessage())
-                        .setDescription(builder.toString())))
-                        .doOnError(err -> {
-                            e.printStackTrace();
-                            System.out.println("------------------------------");
-                            err.printStackTrace();
-                        }).subscribe();
-            } else {
-                exceptionBuffer.offer(e);
-                startTimer();
+        if (botTrace.size() > 0) {
+            return botTrace;
+        } else if (discordTrace.size() > 0) {
+            return discordTrace;
+        } else {
+            return javaTrace;
+        }
+    }
+
+    /**
+     * Drops the summary which was not seen for the longest time if the maximum number of summaries is reached.
+     */
+    private static void evictIfFull() {
+        if (summaries.size() < MAX_SUMMARIES)
+            return;
+
+        summaries.values().stream().min(Comparator.comparingLong(ErrorSummary::getLastSeen))
+                .ifPresent(oldest -> summaries.remove(oldest.getFingerprint()));
+    }
+
+    /**
+     * Posts new summaries and updates the ones which changed since the last report.
+     */
+    private static void report() {
+        try {
+            long now = System.currentTimeMillis();
+            summaries.values().removeIf(summary -> now - summary.getLastSeen() > EXPIRY_MILLIS);
+
+            // Wait until Discord is ready, the summaries keep counting in the meantime
+            if (GECko.mainChannel == null)
+                return;
+
+            for (ErrorSummary summary : summaries.values()) {
+                long count = summary.getCount();
+                if (count == summary.getReportedCount())
+                    continue;
+
+                summary.setReportedCount(count);
+
+                Message message = summary.getMessage();
+                if (message == null || now - summary.getLastReported() > REPOST_AFTER_MILLIS) {
+                    GECko.mainChannel.createMessage(spec -> spec.setEmbed(summary::toEmbed))
+                            .doOnNext(summary::setMessage)
+                            .doOnError(err -> GECko.logger.warn("[ErrorHandler] Could not report error: " + err.getMessage()))
+                            .subscribe();
+                } else {
+                    message.edit(spec -> spec.setEmbed(summary::toEmbed))
+                            .doOnError(err -> GECko.logger.warn("[ErrorHandler] Could not update error report: " + err.getMessage()))
+                            .subscribe();
+                }
+
+                summary.setLastReported(now);
             }
         } catch (Exception fatal) {
-            e.printStackTrace();
             fatal.printStackTrace();
         }
     }
+
+    /**
+     * Aggregates all occurrences of errors with the same fingerprint.
+     */
+    private static class ErrorSummary {
+        private final String fingerprint;
+        private final String type;
+        private final String trace;
+        private final long firstSeen;
+        private final AtomicLong count = new AtomicLong();
+
+        private volatile String lastMessage;
+        private volatile long lastSeen;
+        private volatile long reportedCount = 0;
+        private volatile long lastReported = 0;
+        private volatile Message message;
+
+        ErrorSummary(String fingerprint, Throwable e, List<StackTraceElement> trace) {
+            StringBuilder builder = new StringBuilder();
+            for (StackTraceElement traceElement : trace) {
+                String[] packagePath = traceElement.getClassName().split("\\.");
+                builder.append("at ").append(packagePath[packagePath.length - 1]).append(".").append(traceElement.getMethodName())
+                        .append("(").append(traceElement.getFileName()).append(":").append(traceElement.getLineNumber()).append(")").append("\n");
+            }
+
+            this.fingerprint = fingerprint;
+            this.type = e.getClass().getSimpleName();
+            this.trace = builder.length() > 2000 ? builder.substring(0, 2000) + "…" : builder.toString();
+            this.firstSeen = System.currentTimeMillis();
+        }
+
+        /**
+         * Records another occurrence.
+         *
+         * @param e the exception which occurred
+         * @return the number of occurrences including this one
+         */
+        long record(Throwable e) {
+            lastMessage = e.getMessage();
+            lastSeen = System.currentTimeMillis();
+            return count.incrementAndGet();
+        }
+
+        String getFingerprint() {
+            return fingerprint;
+        }
+
+        String getTitle() {
+            return type + ": " + lastMessage;
+        }
+
+        long getCount() {
+            return count.get();
+        }
+
+        long getLastSeen() {
+            return lastSeen;
+        }
+
+        long getReportedCount() {
+            return reportedCount;
+        }
+
+        void setReportedCount(long reportedCount) {
+            this.reportedCount = reportedCount;
+        }
+
+        long getLastReported() {
+            return lastReported;
+        }
+
+        void setLastReported(long lastReported) {
+            this.lastReported = lastReported;
+        }
+
+        Message getMessage() {
+            return message;
+        }
+
+        void setMessage(Message message) {
+            this.message = message;
+        }
+
+        void toEmbed(LegacyEmbedCreateSpec spec) {
+            String title = getTitle();
+            spec.setColor(Color.of(255, 0, 0))
+                    .setTitle(title.length() > 256 ? title.substring(0, 255) + "…" : title)
+                    .setDescription(trace)
+                    .addField("Occurrences", String.valueOf(count.get()), true)
+                    .addField("First seen", dateFormat.format(Instant.ofEpochMilli(firstSeen)), true)
+                    .addField("Last seen", dateFormat.format(Instant.ofEpochMilli(lastSeen)), true);
+        }
+    }
 }
@@ -21,18 +21,27 @@ package ch.ethz.geco.gecko;
 
 import ch.ethz.geco.g4j.impl.DefaultGECoClient;
 import ch.ethz.geco.g4j.obj.GECoClient;
+import ch.ethz.geco.gecko.audit.Backfill;
 import ch.ethz.geco.gecko.command.CommandBank;
 import ch.ethz.geco.gecko.command.CommandHandler;
+import ch.ethz.geco.gecko.command.CommandRegistry;
+import ch.ethz.geco.gecko.state.StateStore;
 import ch.ethz.geco.gecko.ticket.TicketManager;
 import ch.ethz.geco.gecko.voice.VoiceChannelSpawner;
 import discord4j.common.util.Snowflake;
 import discord4j.core.DiscordClientBuilder;
 import discord4j.core.GatewayDiscordClient;
 import discord4j.core.event.domain.lifecycle.ReadyEvent;
+import discord4j.core.event.domain.lifecycle.ResumeEvent;
 import discord4j.core.event.domain.message.MessageCreateEvent;
 import discord4j.core.object.entity.Guild;
 import discord4j.core.object.entity.channel.TextChannel;
 import org.slf4j.LoggerFactory;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.StringJoiner;
 
 public class GECko {
     /**
@@ -60,6 +69,11 @@ public class GECko {
      */
     private static boolean initOnce = false;
 
+    /**
+     * The subscription passing messages to the command handler.
+     */
+    private static Disposable commandSubscription;
+
     /**
      * The main logger of the bot.
      */
@@ -69,6 +83,7 @@ public class GECko {
         String token = null;
         String prefix = null;
         String configPath = null;
+        boolean training = false;
 
         // Parse options
         for (int i = 0; i < args.length; i++) {
@@ -88,15 +103,24 @@ public class GECko {
                         configPath = args[i + 1];
                     }
                     break;
+                case "--training":
+                    training = true;
+                    break;
                 default:
                     break;
             }
         }
 
+        if (training) {
+            TrainingRun.run();
+            return;
+        }
+
         GECko.start(token, prefix, configPath);
     }
 
     public static void start(String token, String prefix, String configPath) {
+        StartupProfiler.begin();
         logger.info("GECkO");
         logger.info("The official GECo Discord bot. 2016 - 2020, Licensed under Unlicense.");
 
@@ -108,26 +132,46 @@ public class GECko {
         ConfigManager.loadConfig();
         ConfigManager.addCoreFields();
         ConfigManager.checkCoreFields();
+        ConfigManager.watch();
+        StartupProfiler.mark("config");
 
         // Set command prefix
         if (prefix != null) {
             CommandHandler.setDefaultPrefix(prefix);
         } else {
-            CommandHandler.setDefaultPrefix(ConfigManager.getProperty("main_defaultPrefix"));
+            CommandHandler.setDefaultPrefix(ConfigManager.get().getDefaultPrefix());
+
+            // Follow prefix changes made in the config
+            ConfigManager.subscribe((previous, current) -> {
+                if (current.changed(previous, "main_defaultPrefix"))
+                    CommandHandler.setDefaultPrefix(current.getDefaultPrefix());
+            });
         }
 
-        discordClient = DiscordClientBuilder.create(ConfigManager.getProperty("main_token")).build().login().block();
+        // Resume the session of the previous process if there is one, identifying takes much longer
+        discordClient = DiscordClientBuilder.create(ConfigManager.get().getToken()).build().gateway()
+                .login(GatewaySession.clientFactory(GatewaySession.load())).block();
+        StartupProfiler.mark("login");
+        GatewaySession.logConnection(discordClient.getEventDispatcher());
 
-        discordClient.getEventDispatcher().on(ReadyEvent.class).subscribe(readyEvent -> {
-            mainChannel = discordClient.getChannelById(Snowflake.of(ConfigManager.getProperties().getProperty("main_mainChannelID")))
-                    .ofType(TextChannel.class).block();
+        // Index channels as soon as the guilds become available
+        ChannelCache.attachTo(discordClient.getEventDispatcher());
 
-            if (mainChannel != null) {
-                mainGuild = mainChannel.getGuild().block();
-
-                postInit();
-            }
-        });
+        // Resolve the main channel without blocking the event thread, everything else starts in postInit. A resumed
+        // session gets no ready event and no guilds, so the channels are fetched once after the first resume.
+        Flux.merge(discordClient.getEventDispatcher().on(ReadyEvent.class),
+                discordClient.getEventDispatcher().on(ResumeEvent.class).filter(resumeEvent -> mainGuild == null))
+                .flatMap(event -> discordClient.getChannelById(Snowflake.of(ConfigManager.get().getMainChannelId()))
+                        .ofType(TextChannel.class)
+                        .flatMap(channel -> channel.getGuild().doOnNext(guild -> {
+                            mainChannel = channel;
+                            mainGuild = guild;
+                        }))
+                        .flatMap(guild -> event instanceof ResumeEvent ? guild.getChannels().doOnNext(ChannelCache::put).then(Mono.just(guild)) : Mono.just(guild)))
+                .subscribe(guild -> {
+                    StartupProfiler.mark("ready");
+                    postInit();
+                }, ErrorHandler::handleError);
 
         discordClient.onDisconnect().block();
     }
@@ -139,25 +183,31 @@ public class GECko {
         // Stuff you only want to be initialized once
         if (!initOnce) {
             // Login
-            gecoClient = new DefaultGECoClient(ConfigManager.getProperties().getProperty("geco_apiKey"));
-
-            // Register all commands
-            CommandBank.registerCommands();
+            gecoClient = new DefaultGECoClient(ConfigManager.get().getGecoApiKey());
 
             // Add shutdown hook
             Runtime.getRuntime().addShutdownHook(new Thread(GECko::preShutdown));
 
-            // Listen to messages
-            discordClient.getEventDispatcher().on(MessageCreateEvent.class).subscribe(CommandHandler::handle);
+            // Load the persisted state of the subsystems
+            Subsystems.register(Subsystem.of("state", StateStore::open, StateStore::close));
+
+            // Register all commands and listen to messages
+            Subsystems.register(Subsystem.of("commands", GECko::startCommands, GECko::stopCommands));
 
             // Load ticket manager
-            TicketManager.init();
+            Subsystems.register(Subsystem.of("tickets", TicketManager::init, TicketManager::close, "state"));
 
             // Load voice channel spawner
-            VoiceChannelSpawner.init();
+            Subsystems.register(Subsystem.of("voice", VoiceChannelSpawner::init, VoiceChannelSpawner::close, "state"));
+
+            // Start event logger and log the messages which were sent while it was not running
+            Subsystems.register(Subsystem.of("audit", () -> {
+                EventLogger.attachTo(discordClient.getEventDispatcher());
+                Backfill.run(mainGuild).subscribe();
+            }, EventLogger::close));
 
-            // Start event logger
-            EventLogger.attachTo(discordClient.getEventDispatcher());
+            // Independent subsystems start concurrently, see !status for their state
+            Subsystems.startAll().subscribe(null, ErrorHandler::handleError, StartupProfiler::finish);
         }
 
         if (initOnce) {
@@ -169,14 +219,43 @@ public class GECko {
         initOnce = true;
     }
 
+    private static void startCommands() {
+        CommandBank.registerCommands();
+        commandSubscription = discordClient.getEventDispatcher().on(MessageCreateEvent.class).subscribe(CommandHandler::handle);
+    }
+
+    private static void stopCommands() {
+        commandSubscription.dispose();
+        CommandRegistry.clear();
+    }
+
     /**
      * Called before shutting down.
-     * Can be used to clean up stuff and/or to finish work.
+     * Stops accepting new events, waits for the work which is still running and flushes all state to disk.
      */
     private static void preShutdown() {
         logger.info("Shutting down...");
+        StringJoiner phases = new StringJoiner(", ");
+        long start = System.nanoTime();
+        long phaseStart = start;
+
+        // Saved first, events which arrive while the subsystems stop are sent again after resuming
+        Shutdown.stopIntake();
+        GatewaySession.save(discordClient);
+        phases.add("intake " + (System.nanoTime() - phaseStart) / 1000000 + "ms");
+        phaseStart = System.nanoTime();
+
+        int remaining = Shutdown.drain(ConfigManager.get().getDrainTimeout());
+        if (remaining > 0) {
+            logger.warn("[Shutdown] Gave up waiting for " + remaining + " running commands and requests.");
+        }
+        phases.add("drain " + (System.nanoTime() - phaseStart) / 1000000 + "ms");
+        phaseStart = System.nanoTime();
+
+        Subsystems.stopAll();
+        ConfigManager.flush();
+        phases.add("flush " + (System.nanoTime() - phaseStart) / 1000000 + "ms");
 
-        ConfigManager.saveConfig();
-        EventLogger.close();
+        logger.info("[Shutdown] Shut down in " + (System.nanoTime() - start) / 1000000 + "ms: " + phases);
     }
 }
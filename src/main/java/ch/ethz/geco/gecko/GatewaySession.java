@@ -0,0 +1,167 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org>
+ */
+
+package ch.ethz.geco.gecko;
+
+import discord4j.core.GatewayDiscordClient;
+import discord4j.core.event.EventDispatcher;
+import discord4j.core.event.domain.lifecycle.ReadyEvent;
+import discord4j.core.event.domain.lifecycle.ResumeEvent;
+import discord4j.gateway.DefaultGatewayClient;
+import discord4j.gateway.GatewayClient;
+import discord4j.gateway.GatewayOptions;
+import discord4j.gateway.IdentifyOptions;
+import discord4j.gateway.SessionInfo;
+import reactor.core.publisher.Mono;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+import java.util.function.Function;
+
+/**
+ * Keeps the gateway session across a restart of the bot process. On a graceful shutdown the session ID and the
+ * sequence number are saved, the next process resumes the session instead of identifying again. Resuming skips
+ * the identify rate limit and Discord does not send all guilds and members again.
+ * <p>
+ * A saved session is only used once and only if it is recent enough, Discord drops sessions shortly after the
+ * connection is closed. If it does not accept the resume anyway, it invalidates the session and the client
+ * falls back to identifying.
+ */
+public class GatewaySession {
+    private static final Path sessionFile = Paths.get("data", "gateway-session.properties");
+
+    /**
+     * How long after the shutdown a session is still worth resuming.
+     */
+    private static final long MAX_AGE_MILLIS = 60 * 1000;
+
+    /**
+     * Saves the session of the given client. This should be called right before the gateway connection is closed,
+     * such that no events are missed.
+     *
+     * @param client the client whose session to save
+     */
+    public static void save(GatewayDiscordClient client) {
+        if (client == null)
+            return;
+
+        GatewayClient gateway = client.getGatewayClient(0).orElse(null);
+        if (gateway == null || gateway.getSessionId() == null || gateway.getSessionId().isEmpty())
+            return;
+
+        Properties session = new Properties();
+        session.setProperty("id", gateway.getSessionId());
+        session.setProperty("sequence", Integer.toString(gateway.getSequence()));
+        session.setProperty("saved", Long.toString(System.currentTimeMillis()));
+
+        Path temp = sessionFile.resolveSibling(sessionFile.getFileName() + ".tmp");
+        try {
+            Files.createDirectories(sessionFile.getParent());
+            try (OutputStream out = Files.newOutputStream(temp)) {
+                session.store(out, "Gateway session of the last process");
+            }
+
+            Files.move(temp, sessionFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            GECko.logger.info("[GatewaySession] Saved session for resuming at sequence " + gateway.getSequence() + ".");
+        } catch (IOException e) {
+            ErrorHandler.handleError(e);
+        }
+    }
+
+    /**
+     * Loads the session saved by the previous process and deletes it, such that it is not resumed twice.
+     *
+     * @return the session, or null if there is none or it is too old
+     */
+    public static SessionInfo load() {
+        if (!Files.exists(sessionFile))
+            return null;
+
+        Properties session = new Properties();
+        try {
+            try (InputStream in = Files.newInputStream(sessionFile)) {
+                session.load(in);
+            }
+
+            Files.delete(sessionFile);
+        } catch (IOException e) {
+            ErrorHandler.handleError(e);
+            return null;
+        }
+
+        try {
+            long age = System.currentTimeMillis() - Long.parseLong(session.getProperty("saved", "0"));
+            if (age > MAX_AGE_MILLIS) {
+                GECko.logger.info("[GatewaySession] Saved session is " + age / 1000 + "s old, identifying instead.");
+                return null;
+            }
+
+            return SessionInfo.create(session.getProperty("id"), Integer.parseInt(session.getProperty("sequence")));
+        } catch (NumberFormatException e) {
+            GECko.logger.warn("[GatewaySession] Saved session is invalid, identifying instead.");
+            return null;
+        }
+    }
+
+    /**
+     * Returns a gateway client factory which resumes the given session on the first connection.
+     *
+     * @param session the session to resume, or null to identify
+     * @return the gateway client factory, to be passed to the login of the gateway bootstrap
+     */
+    public static Function<GatewayOptions, GatewayClient> clientFactory(SessionInfo session) {
+        if (session == null)
+            return DefaultGatewayClient::new;
+
+        return options -> {
+            IdentifyOptions identify = IdentifyOptions.builder(options.getIdentifyOptions().getShardInfo())
+                    .initialStatus(options.getIdentifyOptions().getInitialStatus().orElse(null))
+                    .intents(options.getIdentifyOptions().getIntents().orElse(null))
+                    .largeThreshold(options.getIdentifyOptions().getLargeThreshold().orElse(null))
+                    .resume(session)
+                    .build();
+
+            return new DefaultGatewayClient(new GatewayOptions(options.getToken(), options.getReactorResources(),
+                    options.getPayloadReader(), options.getPayloadWriter(), options.getReconnectOptions(), identify,
+                    options.getInitialObserver(), options.getIdentifyLimiter(), options.getMaxMissedHeartbeatAck(),
+                    options.isUnpooled()));
+        };
+    }
+
+    /**
+     * Logs whether the first connection resumed the saved session or identified.
+     *
+     * @param dispatcher the event dispatcher of the client
+     */
+    public static void logConnection(EventDispatcher dispatcher) {
+        Mono.firstWithSignal(
+                dispatcher.on(ReadyEvent.class).next().thenReturn("identified as a new session"),
+                dispatcher.on(ResumeEvent.class).next().thenReturn("resumed the saved session"))
+                .subscribe(path -> {
+                    Metrics.increment("gateway." + (path.startsWith("resumed") ? "resumes" : "identifies"));
+                    GECko.logger.info("[GatewaySession] Connected, " + path + ".");
+                });
+    }
+}
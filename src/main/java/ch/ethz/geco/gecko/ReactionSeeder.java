@@ -0,0 +1,112 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org>
+ */
+
+package ch.ethz.geco.gecko;
+
+import discord4j.common.util.Snowflake;
+import discord4j.core.object.entity.Message;
+import discord4j.core.object.reaction.ReactionEmoji;
+import discord4j.discordjson.json.ReactionData;
+import discord4j.rest.http.client.ClientException;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.util.retry.Retry;
+
+import java.time.Duration;
+import java.util.List;
+
+import static ch.ethz.geco.gecko.GECko.discordClient;
+
+/**
+ * Adds the reactions of spawner messages, which users click to pick an option. The reactions are added one after
+ * another without blocking, since Discord shows them in the order they were added, and a request which still
+ * runs into the rate limit is tried again after a backoff.
+ */
+public class ReactionSeeder {
+    /**
+     * How often a rate limited reaction is tried again.
+     */
+    private static final int MAX_RETRIES = 5;
+
+    private static final Duration MIN_BACKOFF = Duration.ofMillis(500);
+
+    /**
+     * Adds the given reactions to a message in order.
+     *
+     * @param message the message
+     * @param emojis  the unicode emojis to add
+     * @return a mono which completes when all reactions were added
+     */
+    public static Mono<Void> seed(Message message, List<String> emojis) {
+        return Flux.fromIterable(emojis).concatMap(emoji -> addReaction(message, emoji)).then();
+    }
+
+    /**
+     * Brings the reactions of a message in line with the given ones after the bot was offline. The reactions which
+     * are already there in the right order are kept. From the first one which is missing, out of order or not an
+     * option anymore, all reactions are removed and added again, so they are shown in the given order.
+     *
+     * @param channelId the channel of the message
+     * @param messageId the message
+     * @param emojis    the unicode emojis the message should have
+     * @return a mono which completes when the reactions are up to date
+     */
+    public static Mono<Void> reconcile(Snowflake channelId, Snowflake messageId, List<String> emojis) {
+        return discordClient.getMessageById(channelId, messageId).flatMap(message -> {
+            // The raw data keeps the order in which the reactions are shown
+            List<ReactionData> reactions = message.getData().reactions().toOptional().orElse(List.of());
+
+            int kept = 0;
+            while (kept < reactions.size() && kept < emojis.size() && isOwn(reactions.get(kept), emojis.get(kept))) {
+                kept++;
+            }
+
+            if (kept == reactions.size() && kept == emojis.size())
+                return Mono.empty();
+
+            GECko.logger.info("[ReactionSeeder] Resetting " + (emojis.size() - kept) + " reactions of message " + messageId.asString() + ".");
+
+            return Flux.fromIterable(reactions.subList(kept, reactions.size()))
+                    .concatMap(reaction -> retryRateLimits(message.removeReactions(ReactionEmoji.of(reaction.emoji()))))
+                    .thenMany(Flux.fromIterable(emojis.subList(kept, emojis.size())).concatMap(emoji -> addReaction(message, emoji)))
+                    .then();
+        });
+    }
+
+    /**
+     * Checks whether the given reaction is the given unicode emoji and was added by the bot.
+     */
+    private static boolean isOwn(ReactionData reaction, String emoji) {
+        return reaction.me() && reaction.emoji().id().isEmpty() && reaction.emoji().name().map(emoji::equals).orElse(false);
+    }
+
+    private static Mono<Void> addReaction(Message message, String emoji) {
+        return retryRateLimits(message.addReaction(ReactionEmoji.unicode(emoji)))
+                .doOnSuccess(ignored -> Metrics.increment("reactions.added"));
+    }
+
+    /**
+     * Retries the given request if Discord responds that it was rate limited.
+     */
+    private static Mono<Void> retryRateLimits(Mono<Void> request) {
+        return request.retryWhen(Retry.backoff(MAX_RETRIES, MIN_BACKOFF)
+                .filter(ClientException.isStatusCode(429))
+                .doBeforeRetry(signal -> Metrics.increment("reactions.retries")));
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org>
+ */
+
+package ch.ethz.geco.gecko;
+
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+
+/**
+ * Coordinates the shutdown of the bot. Once draining starts, the event handlers ignore new events, and the
+ * shutdown waits until the work which is already running finished: commands which are executing and requests
+ * to Discord which were passed through {@link #track(Mono)}.
+ * <p>
+ * The exit code tells the {@link ch.ethz.geco.Launcher} whether to start the bot again.
+ */
+public class Shutdown {
+    /**
+     * Exit code of a requested shutdown, the launcher stops as well.
+     */
+    public static final int EXIT_SHUTDOWN = 0;
+
+    /**
+     * Exit code of a requested restart, the launcher starts the bot again.
+     */
+    public static final int EXIT_RESTART = 2;
+
+    private static final Object lock = new Object();
+
+    private static volatile boolean draining = false;
+    private static int inFlight = 0;
+
+    /**
+     * Returns whether the bot is shutting down. Event handlers should ignore new events if it is.
+     *
+     * @return whether the bot is shutting down
+     */
+    public static boolean isDraining() {
+        return draining;
+    }
+
+    /**
+     * Marks the start of work the shutdown has to wait for. Every call has to be followed by {@link #end()}.
+     */
+    public static void begin() {
+        synchronized (lock) {
+            inFlight++;
+        }
+    }
+
+    /**
+     * Marks the end of work started with {@link #begin()}.
+     */
+    public static void end() {
+        synchronized (lock) {
+            inFlight--;
+            if (inFlight == 0)
+                lock.notifyAll();
+        }
+    }
+
+    /**
+     * Makes the shutdown wait for the given request once it is subscribed.
+     *
+     * @param request the request
+     * @param <T>     the type of the response
+     * @return the request, tracked while it runs
+     */
+    public static <T> Mono<T> track(Mono<T> request) {
+        return Mono.defer(() -> {
+            begin();
+            return request.doFinally(signal -> end());
+        });
+    }
+
+    /**
+     * Stops accepting new events.
+     */
+    static void stopIntake() {
+        draining = true;
+    }
+
+    /**
+     * Waits until all tracked work finished, but at most for the given timeout.
+     *
+     * @param timeout how long to wait at most
+     * @return how much work was still running when the timeout expired
+     */
+    static int drain(Duration timeout) {
+        long deadline = System.nanoTime() + timeout.toNanos();
+        synchronized (lock) {
+            while (inFlight > 0) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0)
+                    break;
+
+                try {
+                    lock.wait(remaining / 1000000 + 1);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+
+            return inFlight;
+        }
+    }
+
+    /**
+     * Exits the process with the given code. The shutdown hook then drains and flushes everything. The exit runs
+     * on a new thread, as it blocks until the hook finished and the caller might be needed to finish its work.
+     *
+     * @param code {@link #EXIT_SHUTDOWN} or {@link #EXIT_RESTART}
+     */
+    public static void exit(int code) {
+        new Thread(() -> System.exit(code), "Exit").start();
+    }
+}
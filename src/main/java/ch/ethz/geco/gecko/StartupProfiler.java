@@ -0,0 +1,98 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org>
+ */
+
+package ch.ethz.geco.gecko;
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.StringJoiner;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how long the phases of the startup take. Each phase ends with a call to {@link #mark(String)} and
+ * lasts since the previous mark, the first phase starts with {@link #begin()}. Once the bot is ready to handle
+ * commands, {@link #finish()} logs the breakdown and stores it as {@code startup.*} metrics.
+ */
+public class StartupProfiler {
+    private static final Map<String, Long> phases = new LinkedHashMap<>();
+
+    private static long last = -1;
+    private static boolean finished = false;
+
+    /**
+     * Ends the {@code jvm} phase, everything before the bot code runs, mostly class loading and JIT warmup.
+     * The first phase measured by {@link #mark(String)} starts now.
+     */
+    public static synchronized void begin() {
+        if (last >= 0)
+            return;
+
+        phases.put("jvm", ManagementFactory.getRuntimeMXBean().getUptime());
+        last = System.nanoTime();
+    }
+
+    /**
+     * Ends the current phase.
+     *
+     * @param phase the name of the phase which ended
+     */
+    public static synchronized void mark(String phase) {
+        begin();
+
+        long now = System.nanoTime();
+        record(phase, TimeUnit.NANOSECONDS.toMillis(now - last));
+        last = now;
+    }
+
+    /**
+     * Records a phase which was measured by the caller. The next phase starts now.
+     *
+     * @param phase  the name of the phase
+     * @param millis how long the phase took
+     */
+    public static synchronized void record(String phase, long millis) {
+        if (finished)
+            return;
+
+        phases.merge(phase, millis, Long::sum);
+        last = System.nanoTime();
+    }
+
+    /**
+     * Logs the breakdown of the startup. Phases measured afterwards, e.g. on a warm restart, are ignored.
+     */
+    public static synchronized void finish() {
+        if (finished)
+            return;
+
+        finished = true;
+
+        // Subsystems start concurrently, so the phases overlap and the total is the wall clock time instead of their sum
+        long total = ManagementFactory.getRuntimeMXBean().getUptime();
+        StringJoiner breakdown = new StringJoiner(", ");
+        for (Map.Entry<String, Long> phase : phases.entrySet()) {
+            breakdown.add(phase.getKey() + " " + phase.getValue() + "ms");
+            Metrics.add("startup." + phase.getKey() + "_ms", phase.getValue());
+        }
+
+        Metrics.add("startup.total_ms", total);
+        GECko.logger.info("[StartupProfiler] Ready for commands after " + total + "ms: " + breakdown);
+    }
+}
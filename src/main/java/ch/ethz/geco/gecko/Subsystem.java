@@ -0,0 +1,87 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org>
+ */
+
+package ch.ethz.geco.gecko;
+
+import java.util.List;
+
+/**
+ * A part of the bot which can be started and stopped while the JVM and the gateway connection keep running.
+ * {@link #stop()} has to release everything {@link #start()} acquired, like event subscriptions, executors and
+ * open files, so that the subsystem can be started again afterwards.
+ */
+public interface Subsystem {
+    /**
+     * Returns the name of the subsystem, used in logs.
+     *
+     * @return the name
+     */
+    String getName();
+
+    /**
+     * Returns the names of the subsystems which have to be ready before this one starts. Subsystems without
+     * dependencies on each other are started concurrently.
+     *
+     * @return the names of the dependencies
+     */
+    default List<String> getDependencies() {
+        return List.of();
+    }
+
+    /**
+     * Starts the subsystem. This may block, e.g. to read files, but should not wait for Discord: work which
+     * is only cosmetic, like adding reactions, should be started in the background.
+     */
+    void start();
+
+    void stop();
+
+    /**
+     * Creates a subsystem from a pair of start and stop methods.
+     *
+     * @param name         the name of the subsystem
+     * @param start        starts the subsystem
+     * @param stop         stops the subsystem
+     * @param dependencies the names of the subsystems which have to be ready first
+     * @return the subsystem
+     */
+    static Subsystem of(String name, Runnable start, Runnable stop, String... dependencies) {
+        return new Subsystem() {
+            @Override
+            public String getName() {
+                return name;
+            }
+
+            @Override
+            public List<String> getDependencies() {
+                return List.of(dependencies);
+            }
+
+            @Override
+            public void start() {
+                start.run();
+            }
+
+            @Override
+            public void stop() {
+                stop.run();
+            }
+        };
+    }
+}
@@ -0,0 +1,194 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org>
+ */
+
+package ch.ethz.geco.gecko;
+
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Starts and stops all {@link Subsystem}s of the bot. On start, the subsystems form a graph by their
+ * dependencies: each one starts as soon as its dependencies are ready, independent ones concurrently.
+ * Subsystems are stopped in reverse order of registration, so dependents stop before their dependencies.
+ * <p>
+ * The state of each subsystem is exposed through {@link #getStates()} and as {@code subsystem.*.ready} metrics.
+ */
+public class Subsystems {
+    public enum State {STOPPED, STARTING, READY, FAILED}
+
+    private static final List<Subsystem> subsystems = new ArrayList<>();
+
+    private static final Map<Subsystem, State> states = new ConcurrentHashMap<>();
+
+    /**
+     * Whether a restart is running. Restarts are rejected instead of queued, as a second one right after the
+     * first has nothing left to do.
+     */
+    private static final AtomicBoolean restarting = new AtomicBoolean(false);
+
+    /**
+     * Registers a subsystem. It is started with the next call to {@link #startAll()}. Its dependencies have to
+     * be registered before it.
+     *
+     * @param subsystem the subsystem to register
+     */
+    public static synchronized void register(Subsystem subsystem) {
+        for (String dependency : subsystem.getDependencies()) {
+            if (find(dependency) == null)
+                throw new IllegalArgumentException("Subsystem " + subsystem.getName() + " depends on unknown subsystem " + dependency);
+        }
+
+        subsystems.add(subsystem);
+        states.put(subsystem, State.STOPPED);
+        Metrics.registerGauge("subsystem." + subsystem.getName() + ".ready", () -> states.get(subsystem) == State.READY ? 1 : 0);
+    }
+
+    /**
+     * Returns the state of all subsystems, in the order they were registered.
+     *
+     * @return the state of each subsystem by name
+     */
+    public static synchronized Map<String, State> getStates() {
+        Map<String, State> result = new LinkedHashMap<>();
+        for (Subsystem subsystem : subsystems) {
+            result.put(subsystem.getName(), states.get(subsystem));
+        }
+
+        return result;
+    }
+
+    /**
+     * Starts all registered subsystems which are not running yet. Each subsystem starts on a worker thread as soon
+     * as its dependencies are ready. A subsystem whose dependency failed does not start.
+     *
+     * @return a mono which completes once all subsystems are started or failed
+     */
+    public static synchronized Mono<Void> startAll() {
+        // Dependencies are registered first, so they always have their mono already
+        Map<String, Mono<Void>> started = new HashMap<>();
+        for (Subsystem subsystem : subsystems) {
+            if (states.get(subsystem) == State.READY) {
+                started.put(subsystem.getName(), Mono.empty());
+                continue;
+            }
+
+            List<Mono<Void>> dependencies = new ArrayList<>();
+            for (String dependency : subsystem.getDependencies()) {
+                dependencies.add(started.get(dependency));
+            }
+
+            states.put(subsystem, State.STARTING);
+            started.put(subsystem.getName(), Mono.when(dependencies)
+                    .then(Mono.fromRunnable(() -> start(subsystem)).subscribeOn(Schedulers.boundedElastic()))
+                    .then()
+                    .cache());
+        }
+
+        return Mono.when(started.values());
+    }
+
+    private static void start(Subsystem subsystem) {
+        for (String dependency : subsystem.getDependencies()) {
+            if (states.get(find(dependency)) != State.READY) {
+                states.put(subsystem, State.FAILED);
+                GECko.logger.error("[Subsystems] Not starting " + subsystem.getName() + ", " + dependency + " is not ready.");
+                return;
+            }
+        }
+
+        long start = System.nanoTime();
+        try {
+            subsystem.start();
+        } catch (Exception e) {
+            states.put(subsystem, State.FAILED);
+            ErrorHandler.handleError(e);
+            return;
+        }
+
+        states.put(subsystem, State.READY);
+
+        long millis = (System.nanoTime() - start) / 1000000;
+        StartupProfiler.record(subsystem.getName(), millis);
+        GECko.logger.debug("[Subsystems] Started " + subsystem.getName() + " in " + millis + "ms.");
+    }
+
+    /**
+     * Stops all running subsystems in reverse order of registration.
+     */
+    public static synchronized void stopAll() {
+        for (int i = subsystems.size() - 1; i >= 0; i--) {
+            Subsystem subsystem = subsystems.get(i);
+            if (states.get(subsystem) != State.READY)
+                continue;
+
+            try {
+                subsystem.stop();
+            } catch (Exception e) {
+                ErrorHandler.handleError(e);
+            }
+
+            states.put(subsystem, State.STOPPED);
+        }
+    }
+
+    /**
+     * Restarts all subsystems inside the running JVM, reloading the config in between. The gateway connection,
+     * the caches and the compiled code are kept, so this only takes as long as the subsystems need to start.
+     *
+     * @return how long the restart took in milliseconds or -1 if another restart or the startup is still running
+     */
+    public static long restart() {
+        if (!restarting.compareAndSet(false, true))
+            return -1;
+
+        try {
+            // Stopping would skip the subsystems which are still starting, they would then be started twice
+            if (states.containsValue(State.STARTING))
+                return -1;
+
+            long start = System.currentTimeMillis();
+            GECko.logger.info("[Subsystems] Restarting all subsystems...");
+
+            stopAll();
+            ConfigManager.flush();
+            ConfigManager.loadConfig();
+            startAll().block();
+
+            long duration = System.currentTimeMillis() - start;
+            Metrics.increment("subsystems.restarts");
+            GECko.logger.info("[Subsystems] Restarted all subsystems in " + duration + "ms.");
+            return duration;
+        } finally {
+            restarting.set(false);
+        }
+    }
+
+    private static Subsystem find(String name) {
+        for (Subsystem subsystem : subsystems) {
+            if (subsystem.getName().equals(name))
+                return subsystem;
+        }
+
+        return null;
+    }
+}
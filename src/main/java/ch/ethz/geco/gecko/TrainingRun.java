@@ -0,0 +1,95 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org>
+ */
+
+package ch.ethz.geco.gecko;
+
+import discord4j.core.DiscordClientBuilder;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.stream.Stream;
+
+/**
+ * Loads the classes used during startup without connecting to Discord, so the JVM can dump them into an AppCDS
+ * archive on exit. Started with {@code --training}, see the Dockerfile. The bot itself only reads the archive,
+ * which is why the training run has to use the same class path as the bot.
+ */
+class TrainingRun {
+    static void run() {
+        long start = System.currentTimeMillis();
+        GECko.logger.info("[TrainingRun] Loading the startup classes...");
+
+        // Builds the whole client without logging in, which loads most of Discord4J, Reactor and Netty
+        DiscordClientBuilder.create("training").build();
+
+        int loaded = 0;
+        for (String className : findBotClasses()) {
+            try {
+                Class.forName(className, false, TrainingRun.class.getClassLoader());
+                loaded++;
+            } catch (ClassNotFoundException | LinkageError e) {
+                GECko.logger.debug("[TrainingRun] Could not load " + className + ": " + e.getMessage());
+            }
+        }
+
+        GECko.logger.info("[TrainingRun] Loaded " + loaded + " bot classes in " + (System.currentTimeMillis() - start) + "ms.");
+    }
+
+    /**
+     * Lists the names of all classes of the bot, from the jar or the classes directory it is run from.
+     */
+    private static List<String> findBotClasses() {
+        List<String> entries = new ArrayList<>();
+        try {
+            File source = new File(TrainingRun.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+            if (source.isFile()) {
+                try (JarFile jar = new JarFile(source)) {
+                    Enumeration<JarEntry> jarEntries = jar.entries();
+                    while (jarEntries.hasMoreElements()) {
+                        entries.add(jarEntries.nextElement().getName());
+                    }
+                }
+            } else {
+                Path root = source.toPath();
+                try (Stream<Path> paths = Files.walk(root)) {
+                    paths.forEach(path -> entries.add(root.relativize(path).toString().replace(File.separatorChar, '/')));
+                }
+            }
+        } catch (IOException | URISyntaxException e) {
+            ErrorHandler.handleError(e);
+        }
+
+        List<String> classNames = new ArrayList<>();
+        for (String entry : entries) {
+            if (entry.startsWith("ch/ethz/geco/") && entry.endsWith(".class") && !entry.contains("module-info")) {
+                classNames.add(entry.substring(0, entry.length() - ".class".length()).replace('/', '.'));
+            }
+        }
+
+        return classNames;
+    }
+}
@@ -0,0 +1,77 @@
+package ch.ethz.geco.gecko.audit;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Describes which records to look up in the {@link EventStore}.
+ */
+public class AuditQuery {
+    private final long userId;
+    private final long channelId;
+    private final long from;
+    private final long to;
+    private final int limit;
+
+    /**
+     * Creates a new query.
+     *
+     * @param userId    the user to look for or 0 for any user
+     * @param channelId the channel to look for or 0 for any channel
+     * @param from      the earliest timestamp to include in epoch milliseconds
+     * @param to        the latest timestamp to include in epoch milliseconds
+     * @param limit     the maximum number of records to return
+     */
+    public AuditQuery(long userId, long channelId, long from, long to, int limit) {
+        this.userId = userId;
+        this.channelId = channelId;
+        this.from = from;
+        this.to = to;
+        this.limit = limit;
+    }
+
+    public long getUserId() {
+        return userId;
+    }
+
+    public long getChannelId() {
+        return channelId;
+    }
+
+    public long getFrom() {
+        return from;
+    }
+
+    public long getTo() {
+        return to;
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    /**
+     * Checks whether the given record matches this query.
+     *
+     * @param record the record to check
+     * @return whether the record matches
+     */
+    boolean matches(AuditRecord record) {
+        return record.getTimestamp() >= from && record.getTimestamp() <= to &&
+                (userId == 0 || record.getUserId() == userId) &&
+                (channelId == 0 || record.getChannelId() == channelId);
+    }
+
+    /**
+     * Checks whether the encoded record at the given position matches this query, without decoding it.
+     *
+     * @param buffer   the buffer containing the record
+     * @param position the position of the record in the buffer
+     * @return whether the record matches
+     */
+    boolean matches(ByteBuffer buffer, int position) {
+        long timestamp = buffer.getLong(position + 5);
+        return timestamp >= from && timestamp <= to &&
+                (userId == 0 || buffer.getLong(position + 13) == userId) &&
+                (channelId == 0 || buffer.getLong(position + 21) == channelId);
+    }
+}
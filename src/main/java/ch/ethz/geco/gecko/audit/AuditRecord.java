@@ -0,0 +1,272 @@
+package ch.ethz.geco.gecko.audit;
+
+import ch.ethz.geco.gecko.ChannelCache;
+import discord4j.common.util.Snowflake;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * A single entry of the audit log. On disk, a record is stored in the following layout (big endian):
+ * <pre>
+ * int    total length of the record, including this field
+ * byte   type
+ * long   timestamp in epoch milliseconds
+ * long   user ID
+ * long   channel ID
+ * long   message ID
+ * short  subject length, followed by the UTF-8 encoded subject
+ * short  content length, followed by the UTF-8 encoded content
+ * short  previous length, followed by the UTF-8 encoded previous content
+ * </pre>
+ * IDs which do not apply to a record type are stored as 0. Records are written through {@link #encode(Type, long, long, long, long, String, String, String)}
+ * into a buffer owned by the calling thread, so logging an event does not allocate. Everything human readable,
+ * like the path of the channel, is only put together by {@link #render()} when the record is read.
+ */
+public class AuditRecord {
+    /**
+     * The size of the fixed part of a record.
+     */
+    static final int HEADER_SIZE = 4 + 1 + 4 * 8;
+
+    /**
+     * The maximum number of bytes a single text field can occupy.
+     */
+    private static final int MAX_FIELD_BYTES = 0xFFFF;
+
+    /**
+     * The encoding buffers of each thread which writes records.
+     */
+    private static final ThreadLocal<Encoder> encoders = ThreadLocal.withInitial(Encoder::new);
+
+    private static final DateTimeFormatter dateFormat = DateTimeFormatter.ofPattern("dd/MM/yy HH:mm:ss").withZone(ZoneId.systemDefault());
+
+    public enum Type {MSG_CREATE, MSG_DELETE, MSG_UPDATE, USER_UPDATE, MEMBER_UPDATE, MEMBER_JOIN, MEMBER_LEFT}
+
+    private final Type type;
+    private final long timestamp;
+    private final long userId;
+    private final long channelId;
+    private final long messageId;
+    private final String subject;
+    private final String content;
+    private final String previous;
+
+    /**
+     * Creates a new audit record.
+     *
+     * @param type      the type of the event
+     * @param timestamp when the event happened in epoch milliseconds
+     * @param userId    the ID of the user who caused the event or 0
+     * @param channelId the ID of the channel the event happened in or 0
+     * @param messageId the ID of the affected message or 0
+     * @param subject   who caused the event, e.g. the name of the author of a message
+     * @param content   the content of the event, e.g. the message content or the new name
+     * @param previous  the previous content for updates, otherwise an empty string
+     */
+    public AuditRecord(Type type, long timestamp, long userId, long channelId, long messageId, String subject, String content, String previous) {
+        this.type = type;
+        this.timestamp = timestamp;
+        this.userId = userId;
+        this.channelId = channelId;
+        this.messageId = messageId;
+        this.subject = subject;
+        this.content = content;
+        this.previous = previous;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public long getUserId() {
+        return userId;
+    }
+
+    public long getChannelId() {
+        return channelId;
+    }
+
+    public long getMessageId() {
+        return messageId;
+    }
+
+    public String getSubject() {
+        return subject;
+    }
+
+    public String getContent() {
+        return content;
+    }
+
+    public String getPrevious() {
+        return previous;
+    }
+
+    /**
+     * Encodes a record into the encoding buffer of the calling thread. The returned buffer is only valid until
+     * the same thread encodes the next record. Text fields which are too long are cut at a character boundary.
+     *
+     * @param type      the type of the event
+     * @param timestamp when the event happened in epoch milliseconds
+     * @param userId    the ID of the user who caused the event or 0
+     * @param channelId the ID of the channel the event happened in or 0
+     * @param messageId the ID of the affected message or 0
+     * @param subject   who caused the event, e.g. the name of the author of a message
+     * @param content   the content of the event, e.g. the message content or the new name
+     * @param previous  the previous content for updates, otherwise an empty string
+     * @return the encoded record, ready to be written
+     */
+    static ByteBuffer encode(Type type, long timestamp, long userId, long channelId, long messageId, String subject, String content, String previous) {
+        Encoder encoder = encoders.get();
+        ByteBuffer buffer = encoder.buffer.clear();
+
+        buffer.position(4);
+        buffer.put((byte) type.ordinal());
+        buffer.putLong(timestamp);
+        buffer.putLong(userId);
+        buffer.putLong(channelId);
+        buffer.putLong(messageId);
+        encoder.putField(subject);
+        encoder.putField(content);
+        encoder.putField(previous);
+        buffer.putInt(0, buffer.position());
+
+        return buffer.flip();
+    }
+
+    /**
+     * Decodes the record at the current position of the given buffer and advances the position past it.
+     *
+     * @param buffer the buffer to read from
+     * @return the decoded record
+     */
+    static AuditRecord decode(ByteBuffer buffer) {
+        buffer.getInt();
+        Type type = Type.values()[buffer.get()];
+        long timestamp = buffer.getLong();
+        long userId = buffer.getLong();
+        long channelId = buffer.getLong();
+        long messageId = buffer.getLong();
+        String subject = getField(buffer);
+        String content = getField(buffer);
+        String previous = getField(buffer);
+
+        return new AuditRecord(type, timestamp, userId, channelId, messageId, subject, content, previous);
+    }
+
+    private static String getField(ByteBuffer buffer) {
+        int length = Short.toUnsignedInt(buffer.getShort());
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Renders this record in a human readable way.
+     *
+     * @return the rendered record
+     */
+    public String render() {
+        StringBuilder builder = new StringBuilder();
+        builder.append(dateFormat.format(Instant.ofEpochMilli(timestamp))).append(" | ").append(type.name());
+
+        if (messageId != 0)
+            builder.append(" | MSG_ID: ").append(messageId);
+        if (channelId != 0)
+            builder.append(" | CHAN_ID: ").append(channelId);
+        if (userId != 0)
+            builder.append(" | USER_ID: ").append(userId);
+
+        switch (type) {
+            case MSG_CREATE:
+            case MSG_DELETE:
+                if (!subject.isEmpty())
+                    builder.append("\n    ").append(getMessageTrace()).append(": ").append(content);
+                break;
+            case MSG_UPDATE:
+                String trace = getMessageTrace();
+                builder.append("\n    ");
+                if (!previous.isEmpty())
+                    builder.append(trace).append(": ").append(previous).append("\n  → ");
+                builder.append(trace).append(": ").append(content);
+                break;
+            case USER_UPDATE:
+            case MEMBER_UPDATE:
+                builder.append(" | ").append(previous).append(" -> ").append(content);
+                break;
+            case MEMBER_JOIN:
+                builder.append(" | ").append(content).append(" joined the server!");
+                break;
+            case MEMBER_LEFT:
+                builder.append(" | ").append(content).append(" left the server!");
+                break;
+        }
+
+        return builder.toString();
+    }
+
+    /**
+     * Returns the path of the channel of this record in the form {@code Category > #channel}.
+     * Channels which are not known (anymore) are shown by their ID.
+     *
+     * @return the path of the channel
+     */
+    public String getChannelPath() {
+        String channelPath = ChannelCache.getPath(Snowflake.of(channelId));
+        return channelPath != null ? channelPath : "#" + channelId;
+    }
+
+    /**
+     * Returns where and by whom a message was sent, in the form {@code Category > #channel > user}.
+     *
+     * @return the trace of the message
+     */
+    private String getMessageTrace() {
+        return getChannelPath() + " > " + subject;
+    }
+
+    /**
+     * The reusable buffers to encode records on one thread.
+     */
+    private static class Encoder {
+        private final ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + 3 * (2 + MAX_FIELD_BYTES));
+        private final CharBuffer chars = CharBuffer.allocate(MAX_FIELD_BYTES);
+        private final CharsetEncoder utf8 = StandardCharsets.UTF_8.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+        /**
+         * Writes the length and the UTF-8 bytes of the given text, at most {@link #MAX_FIELD_BYTES} of them.
+         *
+         * @param text the text to write
+         */
+        private void putField(String text) {
+            int start = buffer.position();
+            int length = Math.min(text.length(), chars.capacity());
+
+            chars.clear();
+            text.getChars(0, length, chars.array(), 0);
+            chars.limit(length);
+
+            // The encoder stops before the first character which does not fit anymore
+            buffer.position(start + 2).limit(start + 2 + MAX_FIELD_BYTES);
+            utf8.reset();
+            utf8.encode(chars, buffer, true);
+            utf8.flush(buffer);
+            buffer.limit(buffer.capacity());
+
+            buffer.putShort(start, (short) (buffer.position() - start - 2));
+        }
+    }
+}
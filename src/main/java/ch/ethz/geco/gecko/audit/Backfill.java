@@ -0,0 +1,194 @@
+package ch.ethz.geco.gecko.audit;
+
+import ch.ethz.geco.gecko.ErrorHandler;
+import ch.ethz.geco.gecko.GECko;
+import ch.ethz.geco.gecko.Metrics;
+import discord4j.common.util.Snowflake;
+import discord4j.core.object.entity.Guild;
+import discord4j.core.object.entity.Message;
+import discord4j.core.object.entity.User;
+import discord4j.core.object.entity.channel.TextChannel;
+import reactor.core.publisher.Mono;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Logs the messages which were sent while the bot was offline. For every text channel, the ID of the newest
+ * logged message is kept as checkpoint. After a restart, the history of each channel is paged forward from its
+ * checkpoint up to the moment logging started again.
+ * <p>
+ * The checkpoints are saved every few minutes together with the reference of the newest record in the
+ * {@link EventStore}. Checkpoints of records appended after the last save are recovered from the store itself,
+ * so a crash never causes messages to be logged twice.
+ */
+public class Backfill {
+    private static final Path checkpointFile = Paths.get("data", "audit", "checkpoints.dat");
+
+    /**
+     * How many channels are paged at the same time. Discord4J queues the requests per rate limit bucket,
+     * this only keeps a backfill from flooding the queue.
+     */
+    private static final int CONCURRENCY = 4;
+
+    private static final long SAVE_INTERVAL_MINUTES = 5;
+
+    /**
+     * The newest logged message ID of each channel.
+     */
+    private static final Map<Long, Long> checkpoints = new ConcurrentHashMap<>();
+
+    /**
+     * The checkpoints as they were when logging started, which is where the backfill starts.
+     */
+    private static Map<Long, Long> startCheckpoints = new HashMap<>();
+
+    /**
+     * Messages from this ID on are logged live, so the backfill stops before it.
+     */
+    private static Snowflake boundary;
+
+    private static ScheduledExecutorService saver;
+
+    /**
+     * Loads the checkpoints and marks the start of live logging. Called by the {@link EventStore} once it is open.
+     */
+    static void open() {
+        long savedRef = 0;
+        if (Files.exists(checkpointFile)) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(checkpointFile)))) {
+                savedRef = in.readLong();
+                int count = in.readInt();
+                for (int i = 0; i < count; i++) {
+                    checkpoints.put(in.readLong(), in.readLong());
+                }
+            } catch (IOException e) {
+                ErrorHandler.handleError(e);
+            }
+        }
+
+        // Catch up with the records appended after the last save
+        EventStore.replay(savedRef, (ref, record) -> update(record.getType(), record.getChannelId(), record.getMessageId()));
+
+        startCheckpoints = new HashMap<>(checkpoints);
+        boundary = Snowflake.of(Instant.now());
+
+        saver = Executors.newSingleThreadScheduledExecutor();
+        saver.scheduleAtFixedRate(Backfill::save, SAVE_INTERVAL_MINUTES, SAVE_INTERVAL_MINUTES, TimeUnit.MINUTES);
+    }
+
+    /**
+     * Moves the checkpoint of a channel forward. Called by the {@link EventStore} for every appended record.
+     *
+     * @param type      the type of the record
+     * @param channelId the channel of the record
+     * @param messageId the message of the record
+     */
+    static void update(AuditRecord.Type type, long channelId, long messageId) {
+        if (type == AuditRecord.Type.MSG_CREATE && channelId != 0) {
+            checkpoints.merge(channelId, messageId, Math::max);
+        }
+    }
+
+    /**
+     * Logs all messages which were sent in the text channels of the given guild while the bot was offline.
+     * Channels without a checkpoint were never logged before and are skipped.
+     *
+     * @param guild the guild to backfill
+     * @return a mono which completes once all channels are backfilled
+     */
+    public static Mono<Void> run(Guild guild) {
+        long start = System.currentTimeMillis();
+
+        return guild.getChannels().ofType(TextChannel.class)
+                .filter(channel -> startCheckpoints.containsKey(channel.getId().asLong()))
+                .flatMap(Backfill::backfill, CONCURRENCY)
+                .reduce(0L, Long::sum)
+                .doOnNext(total -> {
+                    Metrics.add("backfill.messages", total);
+                    GECko.logger.info("[Backfill] Logged " + total + " missed messages in " + (System.currentTimeMillis() - start) + "ms.");
+                })
+                .then(Mono.fromRunnable(Backfill::save));
+    }
+
+    /**
+     * Pages the history of the given channel forward from its checkpoint up to the boundary.
+     *
+     * @param channel the channel to backfill
+     * @return a mono emitting the number of logged messages
+     */
+    private static Mono<Long> backfill(TextChannel channel) {
+        Snowflake checkpoint = Snowflake.of(startCheckpoints.get(channel.getId().asLong()));
+
+        return channel.getMessagesAfter(checkpoint)
+                .takeWhile(message -> message.getId().compareTo(boundary) < 0)
+                .filter(message -> message.getAuthor().map(author -> !author.isBot()).orElse(false))
+                .doOnNext(Backfill::log)
+                .count()
+                .onErrorResume(e -> {
+                    GECko.logger.warn("[Backfill] Could not read the history of #" + channel.getName() + ": " + e.getMessage());
+                    return Mono.just(0L);
+                });
+    }
+
+    private static void log(Message message) {
+        User author = message.getAuthor().get();
+        EventStore.append(AuditRecord.Type.MSG_CREATE, message.getTimestamp().toEpochMilli(), author.getId().asLong(),
+                message.getChannelId().asLong(), message.getId().asLong(), author.getUsername(), message.getContent(), "");
+    }
+
+    /**
+     * Saves the checkpoints. The file is written to a temporary file first and renamed once it is complete.
+     */
+    private static synchronized void save() {
+        Path temp = checkpointFile.resolveSibling(checkpointFile.getFileName() + ".tmp");
+
+        // Checkpoints can only be ahead of the reference, never behind, which the replay on start tolerates
+        long ref = EventStore.getLastRef();
+        Map<Long, Long> snapshot = new HashMap<>(checkpoints);
+
+        try (FileOutputStream fileOut = new FileOutputStream(temp.toFile());
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut))) {
+            out.writeLong(ref);
+            out.writeInt(snapshot.size());
+            for (Map.Entry<Long, Long> entry : snapshot.entrySet()) {
+                out.writeLong(entry.getKey());
+                out.writeLong(entry.getValue());
+            }
+
+            out.flush();
+            fileOut.getChannel().force(true);
+        } catch (IOException e) {
+            ErrorHandler.handleError(e);
+            return;
+        }
+
+        try {
+            Files.move(temp, checkpointFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            ErrorHandler.handleError(e);
+        }
+    }
+
+    /**
+     * Saves the checkpoints and stops saving them periodically.
+     */
+    static void close() {
+        if (saver == null)
+            return;
+
+        saver.shutdown();
+        save();
+        saver = null;
+    }
+}
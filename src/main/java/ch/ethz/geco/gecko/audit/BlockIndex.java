@@ -0,0 +1,191 @@
+package ch.ethz.geco.gecko.audit;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Sparse index entry describing one block of consecutive records in a segment. Instead of indexing every
+ * record, a block only remembers its time range and which users and channels occur in it, which is enough
+ * to skip all blocks that cannot contain a match.
+ */
+class BlockIndex {
+    private final long offset;
+    private final int length;
+    private final int count;
+    private final long minTimestamp;
+    private final long maxTimestamp;
+    private final long[] userIds;
+    private final long[] channelIds;
+
+    private BlockIndex(long offset, int length, int count, long minTimestamp, long maxTimestamp, long[] userIds, long[] channelIds) {
+        this.offset = offset;
+        this.length = length;
+        this.count = count;
+        this.minTimestamp = minTimestamp;
+        this.maxTimestamp = maxTimestamp;
+        this.userIds = userIds;
+        this.channelIds = channelIds;
+    }
+
+    /**
+     * Returns the offset of the first record of this block in the segment.
+     *
+     * @return the offset of this block
+     */
+    long getOffset() {
+        return offset;
+    }
+
+    /**
+     * Returns the number of bytes all records of this block occupy.
+     *
+     * @return the length of this block
+     */
+    int getLength() {
+        return length;
+    }
+
+    /**
+     * Returns the number of records in this block.
+     *
+     * @return the number of records
+     */
+    int getCount() {
+        return count;
+    }
+
+    long getMinTimestamp() {
+        return minTimestamp;
+    }
+
+    long getMaxTimestamp() {
+        return maxTimestamp;
+    }
+
+    /**
+     * Checks whether this block can contain records matching the given query.
+     *
+     * @param query the query to check
+     * @return false if the block definitely contains no matching record
+     */
+    boolean mayMatch(AuditQuery query) {
+        if (maxTimestamp < query.getFrom() || minTimestamp > query.getTo())
+            return false;
+
+        if (query.getUserId() != 0 && Arrays.binarySearch(userIds, query.getUserId()) < 0)
+            return false;
+
+        return query.getChannelId() == 0 || Arrays.binarySearch(channelIds, query.getChannelId()) >= 0;
+    }
+
+    void write(DataOutput out) throws IOException {
+        out.writeLong(offset);
+        out.writeInt(length);
+        out.writeInt(count);
+        out.writeLong(minTimestamp);
+        out.writeLong(maxTimestamp);
+        writeIds(out, userIds);
+        writeIds(out, channelIds);
+    }
+
+    static BlockIndex read(DataInput in) throws IOException {
+        long offset = in.readLong();
+        int length = in.readInt();
+        int count = in.readInt();
+        long minTimestamp = in.readLong();
+        long maxTimestamp = in.readLong();
+        long[] userIds = readIds(in);
+        long[] channelIds = readIds(in);
+
+        return new BlockIndex(offset, length, count, minTimestamp, maxTimestamp, userIds, channelIds);
+    }
+
+    private static void writeIds(DataOutput out, long[] ids) throws IOException {
+        out.writeInt(ids.length);
+        for (long id : ids) {
+            out.writeLong(id);
+        }
+    }
+
+    private static long[] readIds(DataInput in) throws IOException {
+        long[] ids = new long[in.readInt()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = in.readLong();
+        }
+
+        return ids;
+    }
+
+    /**
+     * Collects the records of the block which is currently being written. The IDs are only sorted and
+     * deduplicated when the index entry is built, so adding a record does not allocate.
+     */
+    static class Builder {
+        private final long offset;
+        private int length = 0;
+        private int count = 0;
+        private long minTimestamp = Long.MAX_VALUE;
+        private long maxTimestamp = Long.MIN_VALUE;
+        private long[] userIds = new long[16];
+        private int userCount = 0;
+        private long[] channelIds = new long[16];
+        private int channelCount = 0;
+
+        Builder(long offset) {
+            this.offset = offset;
+        }
+
+        void add(long timestamp, long userId, long channelId, int recordLength) {
+            length += recordLength;
+            count++;
+            minTimestamp = Math.min(minTimestamp, timestamp);
+            maxTimestamp = Math.max(maxTimestamp, timestamp);
+
+            if (userId != 0) {
+                if (userCount == userIds.length)
+                    userIds = Arrays.copyOf(userIds, userCount * 2);
+
+                userIds[userCount++] = userId;
+            }
+
+            if (channelId != 0) {
+                if (channelCount == channelIds.length)
+                    channelIds = Arrays.copyOf(channelIds, channelCount * 2);
+
+                channelIds[channelCount++] = channelId;
+            }
+        }
+
+        long getEnd() {
+            return offset + length;
+        }
+
+        int getLength() {
+            return length;
+        }
+
+        int getCount() {
+            return count;
+        }
+
+        BlockIndex build() {
+            return new BlockIndex(offset, length, count, minTimestamp, maxTimestamp,
+                    sortedDistinct(userIds, userCount), sortedDistinct(channelIds, channelCount));
+        }
+
+        private static long[] sortedDistinct(long[] ids, int count) {
+            long[] sorted = Arrays.copyOf(ids, count);
+            Arrays.sort(sorted);
+
+            int distinct = 0;
+            for (int i = 0; i < sorted.length; i++) {
+                if (i == 0 || sorted[i] != sorted[i - 1])
+                    sorted[distinct++] = sorted[i];
+            }
+
+            return Arrays.copyOf(sorted, distinct);
+        }
+    }
+}
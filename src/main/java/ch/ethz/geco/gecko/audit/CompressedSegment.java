@@ -0,0 +1,190 @@
+package ch.ethz.geco.gecko.audit;
+
+import org.apache.commons.io.input.CountingInputStream;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * A closed segment whose blocks are compressed individually. The file {@code events_<period>.<sequence>.segz}
+ * consists of one frame per block:
+ * <pre>
+ * int    magic number
+ * ...    the {@link BlockIndex} of the block (offsets refer to the uncompressed segment)
+ * int    compressed length
+ * bytes  the deflated records of the block
+ * </pre>
+ * Since every frame starts with the index of its block, opening the segment only reads the headers and
+ * a query only inflates the blocks which can contain matching records.
+ */
+class CompressedSegment extends Segment {
+    private static final int BLOCK_MAGIC = 0x4745_4342;
+
+    private final Path path;
+    private final FileChannel channel;
+    private final List<BlockIndex> blocks = new ArrayList<>();
+
+    /**
+     * The file positions of the compressed data of each block.
+     */
+    private final List<Long> dataPositions = new ArrayList<>();
+
+    /**
+     * The compressed lengths of each block.
+     */
+    private final List<Integer> dataLengths = new ArrayList<>();
+
+    private CompressedSegment(Path directory, String period, int sequence) throws IOException {
+        super(period, sequence);
+        this.path = directory.resolve(getBaseName() + ".segz");
+        this.channel = FileChannel.open(path, StandardOpenOption.READ);
+    }
+
+    /**
+     * Opens an existing compressed segment, reading the headers of all its blocks.
+     *
+     * @param directory the directory of the segment files
+     * @param period    the week the segment belongs to
+     * @param sequence  the sequence number of the segment inside its week
+     * @return the opened segment
+     * @throws IOException if the segment could not be read
+     */
+    static CompressedSegment open(Path directory, String period, int sequence) throws IOException {
+        CompressedSegment segment = new CompressedSegment(directory, period, sequence);
+
+        try (CountingInputStream counter = new CountingInputStream(new BufferedInputStream(Files.newInputStream(segment.path)));
+             DataInputStream in = new DataInputStream(counter)) {
+            while (true) {
+                int magic;
+                try {
+                    magic = in.readInt();
+                } catch (EOFException e) {
+                    break;
+                }
+
+                if (magic != BLOCK_MAGIC)
+                    throw new IOException("Corrupt block header in " + segment.path);
+
+                segment.blocks.add(BlockIndex.read(in));
+                int length = in.readInt();
+                segment.dataPositions.add(counter.getByteCount());
+                segment.dataLengths.add(length);
+                in.skipNBytes(length);
+            }
+        }
+
+        return segment;
+    }
+
+    /**
+     * Compresses the given sealed segment block by block. The compressed file is written to a temporary file
+     * first and only renamed once it is complete, so a crash never leaves a partial segment behind.
+     *
+     * @param source    the segment to compress
+     * @param directory the directory of the segment files
+     * @return the compressed segment
+     * @throws IOException if the segment could not be compressed
+     */
+    static CompressedSegment compress(Segment source, Path directory) throws IOException {
+        Path target = directory.resolve(source.getBaseName() + ".segz");
+        Path temp = directory.resolve(source.getBaseName() + ".segz.tmp");
+
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+        try (FileOutputStream fileOut = new FileOutputStream(temp.toFile());
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut))) {
+            byte[] chunk = new byte[64 * 1024];
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+
+            for (BlockIndex block : source.getBlocks()) {
+                deflater.reset();
+                deflater.setInput(source.viewBlock(block));
+                deflater.finish();
+
+                compressed.reset();
+                while (!deflater.finished()) {
+                    int length = deflater.deflate(chunk);
+                    compressed.write(chunk, 0, length);
+                }
+
+                out.writeInt(BLOCK_MAGIC);
+                block.write(out);
+                out.writeInt(compressed.size());
+                compressed.writeTo(out);
+            }
+
+            out.flush();
+            fileOut.getChannel().force(true);
+        } finally {
+            deflater.end();
+        }
+
+        Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+
+        return open(directory, source.getPeriod(), source.getSequence());
+    }
+
+    @Override
+    List<BlockIndex> getBlocks() {
+        return Collections.unmodifiableList(blocks);
+    }
+
+    /**
+     * Inflates the given block.
+     *
+     * @param block the block to read
+     * @return a buffer containing the uncompressed records of the block
+     * @throws IOException if the block could not be read or is corrupt
+     */
+    @Override
+    ByteBuffer viewBlock(BlockIndex block) throws IOException {
+        int index = blocks.indexOf(block);
+        if (index < 0)
+            throw new IllegalArgumentException("Block is not part of segment " + path);
+
+        ByteBuffer compressed = ByteBuffer.allocate(dataLengths.get(index));
+        long position = dataPositions.get(index);
+        while (compressed.hasRemaining()) {
+            if (channel.read(compressed, position + compressed.position()) < 0)
+                throw new EOFException("Unexpected end of segment " + path);
+        }
+        compressed.flip();
+
+        Inflater inflater = new Inflater();
+        try {
+            ByteBuffer raw = ByteBuffer.allocate(block.getLength());
+            inflater.setInput(compressed);
+            while (raw.hasRemaining() && !inflater.finished()) {
+                if (inflater.inflate(raw) == 0 && inflater.needsInput())
+                    throw new IOException("Truncated block in " + path);
+            }
+
+            return raw.flip().asReadOnlyBuffer();
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt block in " + path, e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    @Override
+    void close() throws IOException {
+        channel.close();
+    }
+
+    @Override
+    void delete() throws IOException {
+        close();
+        Files.deleteIfExists(path);
+    }
+}
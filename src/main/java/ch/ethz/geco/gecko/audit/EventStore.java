@@ -0,0 +1,550 @@
+package ch.ethz.geco.gecko.audit;
+
+import ch.ethz.geco.gecko.ErrorHandler;
+import ch.ethz.geco.gecko.GECko;
+import ch.ethz.geco.gecko.Metrics;
+import ch.ethz.geco.gecko.audit.command.Audit;
+import ch.ethz.geco.gecko.command.CommandRegistry;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.temporal.IsoFields;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Structured, append-only store of the audit log. Records are written to weekly, memory-mapped segments
+ * of a fixed size, each of them having a sparse block index by user ID, channel ID and timestamp, so that
+ * lookups only read the blocks which can contain matching records. Closed segments are compressed block by
+ * block in the background, so queries on older weeks only inflate the blocks they need. Retention deletes
+ * whole segments.
+ * <p>
+ * Records are referenced by the ID of their segment in the upper and their offset inside the segment in the
+ * lower 32 bits, which is what the {@link TextIndex} stores in its posting lists.
+ */
+public class EventStore {
+    /**
+     * The directory where all segments are stored.
+     */
+    private static final Path directory = Paths.get("data", "audit");
+
+    private static final Pattern segmentPattern = Pattern.compile("events_(\\d{4}-\\d{2})\\.(\\d+)\\.seg(z?)");
+
+    /**
+     * How many weeks of records are kept. Closed segments are compressed, so this can be a lot longer
+     * than what fits on disk uncompressed.
+     */
+    private static final int RETENTION_WEEKS = 26;
+
+    /**
+     * All segments, ordered from oldest to newest.
+     */
+    private static final List<Segment> segments = new CopyOnWriteArrayList<>();
+
+    /**
+     * The segment new records are appended to.
+     */
+    private static MappedSegment active;
+
+    /**
+     * The reference of the newest record.
+     */
+    private static long lastRef = 0;
+
+    /**
+     * Compresses closed segments in the background.
+     */
+    private static ExecutorService compressor;
+
+    /**
+     * Set while closing, pending compressions are skipped and picked up again on the next start.
+     */
+    private static volatile boolean closing = false;
+
+    /**
+     * Initializes the event store, opening all existing segments and registering the audit commands.
+     * This should be called once on startup.
+     */
+    public static void init() {
+        CommandRegistry.registerCommand(new Audit());
+
+        open();
+        TextIndex.open();
+        EventStream.open();
+        Backfill.open();
+
+        Metrics.registerGauge("audit.segments", segments::size);
+    }
+
+    /**
+     * Opens all existing segments and starts compressing the closed ones which are not compressed yet.
+     */
+    private static synchronized void open() {
+        compressor = Executors.newSingleThreadExecutor();
+        closing = false;
+
+        try {
+            Files.createDirectories(directory);
+
+            // Find all segments, preferring the compressed version if compression finished but the original was not deleted yet
+            Map<String, Matcher> found = new TreeMap<>();
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "events_*.seg*")) {
+                for (Path path : stream) {
+                    String fileName = path.getFileName().toString();
+                    Matcher matcher = segmentPattern.matcher(fileName);
+
+                    if (!matcher.matches()) {
+                        // Leftover of an interrupted compression
+                        if (fileName.endsWith(".segz.tmp")) {
+                            Files.delete(path);
+                        }
+
+                        continue;
+                    }
+
+                    String key = String.format("%s.%010d", matcher.group(1), Integer.parseInt(matcher.group(2)));
+                    if (!found.containsKey(key) || matcher.group(3).equals("z")) {
+                        found.put(key, matcher);
+                    }
+                }
+            }
+
+            List<Matcher> matchers = new ArrayList<>(found.values());
+            for (int i = 0; i < matchers.size(); i++) {
+                Matcher matcher = matchers.get(i);
+                String period = matcher.group(1);
+                int sequence = Integer.parseInt(matcher.group(2));
+
+                if (matcher.group(3).equals("z")) {
+                    CompressedSegment segment = CompressedSegment.open(directory, period, sequence);
+                    deleteUncompressed(segment);
+                    segments.add(segment);
+                } else if (i == matchers.size() - 1) {
+                    // Only the newest segment can still be written to
+                    active = MappedSegment.open(directory, period, sequence, true);
+                    segments.add(active);
+                } else {
+                    MappedSegment segment = MappedSegment.open(directory, period, sequence, false);
+                    segment.seal();
+                    segments.add(segment);
+                    scheduleCompression(segment);
+                }
+            }
+
+            // Everything which exists already is older than the end of the newest segment, where the next record goes
+            if (!segments.isEmpty()) {
+                Segment newest = segments.get(segments.size() - 1);
+                List<BlockIndex> blocks = newest.getBlocks();
+                long end = blocks.isEmpty() ? 0 : blocks.get(blocks.size() - 1).getOffset() + blocks.get(blocks.size() - 1).getLength();
+                lastRef = toRef(newest, end) - 1;
+            }
+
+            GECko.logger.info("[EventStore] Opened " + segments.size() + " audit log segments.");
+            applyRetention();
+        } catch (IOException e) {
+            ErrorHandler.handleError(e);
+        }
+    }
+
+    /**
+     * Appends a record to the audit log. The record is encoded straight into a reusable buffer
+     * of the calling thread, see {@link AuditRecord#encode}.
+     *
+     * @param type      the type of the event
+     * @param timestamp when the event happened in epoch milliseconds
+     * @param userId    the ID of the user who caused the event or 0
+     * @param channelId the ID of the channel the event happened in or 0
+     * @param messageId the ID of the affected message or 0
+     * @param subject   who caused the event, e.g. the name of the author of a message
+     * @param content   the content of the event, e.g. the message content or the new name
+     * @param previous  the previous content for updates, otherwise an empty string
+     */
+    public static void append(AuditRecord.Type type, long timestamp, long userId, long channelId, long messageId, String subject, String content, String previous) {
+        ByteBuffer record = AuditRecord.encode(type, timestamp, userId, channelId, messageId, subject, content, previous);
+
+        long ref;
+        synchronized (EventStore.class) {
+            try {
+                // Late records, e.g. from the backfill, go to the active segment instead of reopening an old one
+                String period = getPeriod(timestamp);
+                if (active != null && period.compareTo(active.getPeriod()) < 0) {
+                    period = active.getPeriod();
+                }
+
+                int offset = active != null && active.getPeriod().equals(period) ? active.append(record) : -1;
+                if (offset < 0) {
+                    roll(period);
+                    offset = active.append(record);
+                }
+
+                ref = toRef(active, offset);
+                lastRef = ref;
+
+                // The index skips records older than the last one it saw, so it has to get them in order. The
+                // checkpoints of the backfill must not fall behind the last reference it saves with them.
+                TextIndex.submit(ref, type, content);
+                Backfill.update(type, channelId, messageId);
+            } catch (IOException e) {
+                ErrorHandler.handleError(e);
+                return;
+            }
+        }
+
+        EventStream.publish(ref, record);
+        Metrics.increment("audit.records");
+    }
+
+    /**
+     * Starts a new segment, either because the week is over or because the active segment is full.
+     *
+     * @param period the period of the next record
+     * @throws IOException if the new segment could not be created
+     */
+    private static void roll(String period) throws IOException {
+        int sequence = 0;
+        if (active != null) {
+            active.seal();
+
+            if (active.getPeriod().equals(period)) {
+                sequence = active.getSequence() + 1;
+            }
+        }
+
+        MappedSegment previous = active;
+        active = MappedSegment.open(directory, period, sequence, true);
+        segments.add(active);
+
+        if (previous != null) {
+            scheduleCompression(previous);
+        }
+
+        applyRetention();
+    }
+
+    /**
+     * Compresses the given sealed segment in the background and replaces it once the compressed version is complete.
+     *
+     * @param segment the segment to compress
+     */
+    private static void scheduleCompression(MappedSegment segment) {
+        compressor.execute(() -> {
+            if (closing)
+                return;
+
+            try {
+                CompressedSegment compressed = CompressedSegment.compress(segment, directory);
+                GECko.logger.debug("[EventStore] Compressed audit log segment " + segment.getBaseName() + ".");
+
+                synchronized (EventStore.class) {
+                    int index = segments.indexOf(segment);
+                    if (index < 0) {
+                        // Deleted by the retention in the meantime
+                        compressed.delete();
+                        return;
+                    }
+
+                    segments.set(index, compressed);
+
+                    // Queries which still hold the old segment keep reading from its mapping until it is collected
+                    segment.close();
+                }
+
+                deleteUncompressed(compressed);
+            } catch (IOException e) {
+                ErrorHandler.handleError(e);
+            }
+        });
+    }
+
+    /**
+     * Deletes the uncompressed files of the given compressed segment.
+     *
+     * @param segment the compressed segment
+     * @throws IOException if the files could not be deleted
+     */
+    private static void deleteUncompressed(CompressedSegment segment) throws IOException {
+        Files.deleteIfExists(directory.resolve(segment.getBaseName() + ".seg"));
+        Files.deleteIfExists(directory.resolve(segment.getBaseName() + ".idx"));
+    }
+
+    /**
+     * Deletes all segments which only contain records older than the retention period.
+     */
+    private static void applyRetention() {
+        long cutoff = Instant.now().minus(Duration.ofDays(RETENTION_WEEKS * 7L)).toEpochMilli();
+
+        for (Segment segment : segments) {
+            if (segment != active && segment.getMaxTimestamp() < cutoff) {
+                segments.remove(segment);
+
+                try {
+                    segment.delete();
+                } catch (IOException e) {
+                    ErrorHandler.handleError(e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the week the given timestamp belongs to, formatted as {@code yyyy-ww}.
+     *
+     * @param timestamp a timestamp in epoch milliseconds
+     * @return the week of the timestamp
+     */
+    private static String getPeriod(long timestamp) {
+        ZonedDateTime time = Instant.ofEpochMilli(timestamp).atZone(ZoneId.systemDefault());
+        return String.format("%04d-%02d", time.get(IsoFields.WEEK_BASED_YEAR), time.get(IsoFields.WEEK_OF_WEEK_BASED_YEAR));
+    }
+
+    /**
+     * Looks up the newest records matching the given query. Only blocks whose index entry matches the query are read.
+     *
+     * @param query the query to answer
+     * @return the matching records, newest first
+     */
+    public static List<AuditRecord> query(AuditQuery query) {
+        List<AuditRecord> result = new ArrayList<>();
+
+        List<Segment> snapshot = new ArrayList<>(segments);
+        for (int i = snapshot.size() - 1; i >= 0 && result.size() < query.getLimit(); i--) {
+            Segment segment = snapshot.get(i);
+            List<BlockIndex> blocks = segment.getBlocks();
+
+            for (int j = blocks.size() - 1; j >= 0 && result.size() < query.getLimit(); j--) {
+                BlockIndex block = blocks.get(j);
+                if (!block.mayMatch(query))
+                    continue;
+
+                // Filter on the fixed header fields directly in the block, only matches get decoded
+                ByteBuffer view;
+                try {
+                    view = segment.viewBlock(block);
+                } catch (IOException e) {
+                    ErrorHandler.handleError(e);
+                    continue;
+                }
+
+                int[] matches = new int[block.getCount()];
+                int matchCount = 0;
+                for (int k = 0, position = 0; k < block.getCount(); k++) {
+                    if (query.matches(view, position)) {
+                        matches[matchCount++] = position;
+                    }
+
+                    position += view.getInt(position);
+                }
+
+                for (int k = matchCount - 1; k >= 0 && result.size() < query.getLimit(); k--) {
+                    result.add(AuditRecord.decode(view.position(matches[k])));
+                }
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Returns the reference of the record at the given offset of a segment.
+     *
+     * @param segment the segment containing the record
+     * @param offset  the offset of the record inside the segment
+     * @return the reference of the record
+     */
+    private static long toRef(Segment segment, long offset) {
+        return segment.getId() << 32 | offset;
+    }
+
+    /**
+     * Returns the reference of the newest record.
+     *
+     * @return the reference of the newest record or a reference just before the next record if nothing was appended since the start
+     */
+    static synchronized long getLastRef() {
+        return lastRef;
+    }
+
+    /**
+     * Checks whether the segment with the given ID still exists.
+     *
+     * @param segmentId the ID of the segment
+     * @return whether the segment was not deleted by the retention yet
+     */
+    static boolean containsSegment(long segmentId) {
+        for (Segment segment : segments) {
+            if (segment.getId() == segmentId)
+                return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * Reads the records with the given references. Consecutive references into the same block only read the block once.
+     *
+     * @param refs the references of the records to read
+     * @return the records in the same order as the references, null for records whose segment was deleted
+     */
+    static List<AuditRecord> getRecords(long[] refs) {
+        List<AuditRecord> result = new ArrayList<>(refs.length);
+        List<Segment> snapshot = new ArrayList<>(segments);
+
+        Segment segment = null;
+        BlockIndex block = null;
+        ByteBuffer view = null;
+        for (long ref : refs) {
+            long segmentId = ref >>> 32;
+            int offset = (int) ref;
+
+            if (segment == null || segment.getId() != segmentId) {
+                segment = null;
+                block = null;
+                for (Segment candidate : snapshot) {
+                    if (candidate.getId() == segmentId) {
+                        segment = candidate;
+                        break;
+                    }
+                }
+            }
+
+            if (segment == null) {
+                result.add(null);
+                continue;
+            }
+
+            if (block == null || offset < block.getOffset() || offset >= block.getOffset() + block.getLength()) {
+                block = findBlock(segment.getBlocks(), offset);
+
+                try {
+                    view = block == null ? null : segment.viewBlock(block);
+                } catch (IOException e) {
+                    ErrorHandler.handleError(e);
+                    block = null;
+                }
+
+                if (block == null) {
+                    result.add(null);
+                    continue;
+                }
+            }
+
+            result.add(AuditRecord.decode(view.position(offset - (int) block.getOffset())));
+        }
+
+        return result;
+    }
+
+    /**
+     * Finds the block containing the given offset.
+     *
+     * @param blocks the blocks of a segment, ordered by offset
+     * @param offset the offset of a record
+     * @return the block containing the offset or null if there is none
+     */
+    private static BlockIndex findBlock(List<BlockIndex> blocks, int offset) {
+        int low = 0;
+        int high = blocks.size() - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            BlockIndex block = blocks.get(middle);
+
+            if (offset < block.getOffset()) {
+                high = middle - 1;
+            } else if (offset >= block.getOffset() + block.getLength()) {
+                low = middle + 1;
+            } else {
+                return block;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Passes all records newer than the given reference to the given consumer, oldest first.
+     *
+     * @param after    the reference of the newest record to skip
+     * @param consumer receives the reference and the record of each newer record
+     */
+    static void replay(long after, BiConsumer<Long, AuditRecord> consumer) {
+        for (Segment segment : new ArrayList<>(segments)) {
+            if (segment.getId() < after >>> 32)
+                continue;
+
+            for (BlockIndex block : segment.getBlocks()) {
+                if (toRef(segment, block.getOffset() + block.getLength()) <= after)
+                    continue;
+
+                ByteBuffer view;
+                try {
+                    view = segment.viewBlock(block);
+                } catch (IOException e) {
+                    ErrorHandler.handleError(e);
+                    continue;
+                }
+
+                for (int k = 0, position = 0; k < block.getCount(); k++) {
+                    int length = view.getInt(position);
+                    long ref = toRef(segment, block.getOffset() + position);
+                    if (ref > after) {
+                        consumer.accept(ref, AuditRecord.decode(view.position(position)));
+                    }
+
+                    position += length;
+                }
+            }
+        }
+    }
+
+    /**
+     * Completes the index of the active segment and closes all segments.
+     */
+    public static void close() {
+        Backfill.close();
+        EventStream.close();
+        TextIndex.close();
+
+        // Let a running compression finish, the remaining ones are picked up on the next start
+        closing = true;
+        compressor.shutdown();
+        try {
+            compressor.awaitTermination(30, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        synchronized (EventStore.class) {
+            for (Segment segment : segments) {
+                try {
+                    if (segment == active) {
+                        active.seal();
+                    }
+
+                    segment.close();
+                } catch (IOException e) {
+                    ErrorHandler.handleError(e);
+                }
+            }
+
+            segments.clear();
+            active = null;
+        }
+    }
+}
@@ -0,0 +1,330 @@
+package ch.ethz.geco.gecko.audit;
+
+import ch.ethz.geco.gecko.ConfigManager;
+import ch.ethz.geco.gecko.ConfigSnapshot;
+import ch.ethz.geco.gecko.ErrorHandler;
+import ch.ethz.geco.gecko.GECko;
+import ch.ethz.geco.gecko.Metrics;
+import fi.iki.elonen.NanoHTTPD;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+
+import static org.apache.commons.text.StringEscapeUtils.escapeJson;
+
+/**
+ * Read-only HTTP endpoint which streams new audit log records and the bot metrics as Server-Sent Events.
+ * Clients connect to {@code GET /events}, authenticated by the token configured in {@code stream_token}, either
+ * as bearer token or as {@code token} parameter. The optional parameters {@code user}, {@code channel} and
+ * {@code type} take comma separated IDs or record types and are applied before anything is queued for a client.
+ * <p>
+ * Every client has a bounded queue. If a client does not keep up, new events for it are dropped and the client
+ * is told how many it missed, so a slow dashboard never blocks logging. The server only starts if
+ * {@code stream_port} is configured.
+ */
+public class EventStream extends NanoHTTPD {
+    /**
+     * How many events are queued per client before new ones are dropped.
+     */
+    private static final int CLIENT_BUFFER = 512;
+
+    /**
+     * How often the metrics are sent to every client.
+     */
+    private static final long METRICS_INTERVAL = TimeUnit.SECONDS.toMillis(10);
+
+    private static final List<Client> clients = new CopyOnWriteArrayList<>();
+
+    private static EventStream server;
+
+    /**
+     * Restarts the server if the port or token is changed in the config.
+     */
+    private static final BiConsumer<ConfigSnapshot, ConfigSnapshot> configSubscriber = (previous, current) -> {
+        if (current.changed(previous, "stream_port") || current.changed(previous, "stream_token")) {
+            stop();
+            start(current);
+        }
+    };
+
+    private final byte[] token;
+
+    private EventStream(int port, String token) {
+        super(port);
+        this.token = token.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Starts the HTTP server if it is configured. Called by the {@link EventStore} once it is open.
+     */
+    static void open() {
+        Metrics.registerGauge("stream.clients", clients::size);
+        start(ConfigManager.get());
+        ConfigManager.subscribe(configSubscriber);
+    }
+
+    private static synchronized void start(ConfigSnapshot config) {
+        if (config.getStreamPort() == 0)
+            return;
+
+        String token = config.getStreamToken();
+        if (token == null || token.isBlank()) {
+            GECko.logger.warn("[EventStream] stream_port is set but stream_token is missing, not starting the event stream.");
+            return;
+        }
+
+        try {
+            server = new EventStream(config.getStreamPort(), token.trim());
+            server.start(NanoHTTPD.SOCKET_READ_TIMEOUT, true);
+            GECko.logger.info("[EventStream] Streaming events on port " + config.getStreamPort() + ".");
+        } catch (IOException e) {
+            server = null;
+            ErrorHandler.handleError(e);
+        }
+    }
+
+    /**
+     * Stops the HTTP server and no longer follows config changes.
+     */
+    static void close() {
+        ConfigManager.unsubscribe(configSubscriber);
+        stop();
+    }
+
+    /**
+     * Stops the HTTP server and disconnects all clients.
+     */
+    private static synchronized void stop() {
+        if (server == null)
+            return;
+
+        for (Client client : clients) {
+            client.close();
+        }
+
+        server.stop();
+        server = null;
+    }
+
+    /**
+     * Passes a newly appended record to all connected clients. The record is only decoded if there are clients.
+     *
+     * @param ref    the reference of the record
+     * @param record the encoded record
+     */
+    static void publish(long ref, ByteBuffer record) {
+        if (clients.isEmpty())
+            return;
+
+        AuditRecord decoded = AuditRecord.decode(record.duplicate());
+        byte[] event = null;
+        for (Client client : clients) {
+            if (client.accepts(decoded)) {
+                if (event == null) {
+                    event = toEvent(ref, decoded);
+                }
+
+                client.offer(event);
+            }
+        }
+    }
+
+    @Override
+    public Response serve(IHTTPSession session) {
+        if (session.getMethod() != Method.GET || !session.getUri().equals("/events"))
+            return newFixedLengthResponse(Response.Status.NOT_FOUND, MIME_PLAINTEXT, "Not found");
+
+        if (!isAuthorized(session))
+            return newFixedLengthResponse(Response.Status.UNAUTHORIZED, MIME_PLAINTEXT, "Unauthorized");
+
+        Client client;
+        try {
+            Map<String, List<String>> parameters = session.getParameters();
+            client = new Client(parseIds(parameters.get("user")), parseIds(parameters.get("channel")), parseTypes(parameters.get("type")));
+        } catch (IllegalArgumentException e) {
+            return newFixedLengthResponse(Response.Status.BAD_REQUEST, MIME_PLAINTEXT, "Invalid filter: " + e.getMessage());
+        }
+
+        clients.add(client);
+        Metrics.increment("stream.connections");
+
+        Response response = newChunkedResponse(Response.Status.OK, "text/event-stream", client);
+        response.addHeader("Cache-Control", "no-cache");
+        response.setGzipEncoding(false);
+        return response;
+    }
+
+    private boolean isAuthorized(IHTTPSession session) {
+        String provided = null;
+
+        String header = session.getHeaders().get("authorization");
+        if (header != null && header.startsWith("Bearer ")) {
+            provided = header.substring("Bearer ".length()).trim();
+        } else if (session.getParameters().containsKey("token")) {
+            provided = session.getParameters().get("token").get(0);
+        }
+
+        return provided != null && MessageDigest.isEqual(token, provided.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static Set<Long> parseIds(List<String> values) {
+        Set<Long> ids = new HashSet<>();
+        if (values != null) {
+            for (String value : values) {
+                for (String id : value.split(",")) {
+                    if (!id.isBlank())
+                        ids.add(Long.parseLong(id.trim()));
+                }
+            }
+        }
+
+        return ids;
+    }
+
+    private static Set<AuditRecord.Type> parseTypes(List<String> values) {
+        Set<AuditRecord.Type> types = EnumSet.noneOf(AuditRecord.Type.class);
+        if (values != null) {
+            for (String value : values) {
+                for (String type : value.split(",")) {
+                    if (!type.isBlank())
+                        types.add(AuditRecord.Type.valueOf(type.trim().toUpperCase(Locale.ROOT)));
+                }
+            }
+        }
+
+        return types;
+    }
+
+    private static byte[] toEvent(long ref, AuditRecord record) {
+        String data = "{\"type\":\"" + record.getType().name() + "\"," +
+                "\"timestamp\":" + record.getTimestamp() + "," +
+                "\"userId\":\"" + record.getUserId() + "\"," +
+                "\"channelId\":\"" + record.getChannelId() + "\"," +
+                "\"messageId\":\"" + record.getMessageId() + "\"," +
+                "\"channel\":\"" + (record.getChannelId() != 0 ? escapeJson(record.getChannelPath()) : "") + "\"," +
+                "\"subject\":\"" + escapeJson(record.getSubject()) + "\"," +
+                "\"content\":\"" + escapeJson(record.getContent()) + "\"," +
+                "\"previous\":\"" + escapeJson(record.getPrevious()) + "\"}";
+
+        return ("id: " + ref + "\nevent: record\ndata: " + data + "\n\n").getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] toEvent(String name, String data) {
+        return ("event: " + name + "\ndata: " + data + "\n\n").getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] metricsEvent() {
+        StringJoiner data = new StringJoiner(",", "{", "}");
+        Metrics.snapshot().forEach((name, value) -> data.add("\"" + escapeJson(name) + "\":" + value));
+
+        return toEvent("metrics", data.toString());
+    }
+
+    /**
+     * The stream of one connected client. The HTTP server reads the events from it and sends them as they come.
+     */
+    private static class Client extends InputStream {
+        private final Set<Long> userIds;
+        private final Set<Long> channelIds;
+        private final Set<AuditRecord.Type> types;
+
+        private final BlockingQueue<byte[]> queue = new ArrayBlockingQueue<>(CLIENT_BUFFER);
+        private final AtomicLong dropped = new AtomicLong();
+        private volatile boolean closed = false;
+
+        private byte[] current = new byte[0];
+        private int index = 0;
+        private long nextMetrics = 0;
+
+        Client(Set<Long> userIds, Set<Long> channelIds, Set<AuditRecord.Type> types) {
+            this.userIds = userIds;
+            this.channelIds = channelIds;
+            this.types = types;
+        }
+
+        boolean accepts(AuditRecord record) {
+            return (userIds.isEmpty() || userIds.contains(record.getUserId())) &&
+                    (channelIds.isEmpty() || channelIds.contains(record.getChannelId())) &&
+                    (types.isEmpty() || types.contains(record.getType()));
+        }
+
+        /**
+         * Queues the given event without blocking, dropping it if the client is too slow.
+         *
+         * @param event the event to send
+         */
+        void offer(byte[] event) {
+            if (!queue.offer(event)) {
+                dropped.incrementAndGet();
+                Metrics.increment("stream.dropped");
+            }
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] single = new byte[1];
+            return read(single, 0, 1) < 0 ? -1 : single[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            while (index >= current.length) {
+                if (closed)
+                    return -1;
+
+                current = next();
+                index = 0;
+            }
+
+            int count = Math.min(length, current.length - index);
+            System.arraycopy(current, index, buffer, offset, count);
+            index += count;
+            return count;
+        }
+
+        /**
+         * Waits for the next event to send.
+         *
+         * @return the next event or an empty array if there is nothing to send yet
+         */
+        private byte[] next() throws IOException {
+            long missed = dropped.getAndSet(0);
+            if (missed > 0)
+                return toEvent("dropped", "{\"count\":" + missed + "}");
+
+            long wait = nextMetrics - System.currentTimeMillis();
+            if (wait <= 0) {
+                nextMetrics = System.currentTimeMillis() + METRICS_INTERVAL;
+                return metricsEvent();
+            }
+
+            try {
+                byte[] event = queue.poll(wait, TimeUnit.MILLISECONDS);
+                return event != null ? event : new byte[0];
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            }
+        }
+
+        /**
+         * Called by the HTTP server once the client disconnected.
+         */
+        @Override
+        public void close() {
+            closed = true;
+            clients.remove(this);
+        }
+    }
+}
@@ -0,0 +1,269 @@
+package ch.ethz.geco.gecko.audit;
+
+import org.apache.commons.io.input.CountingInputStream;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A fixed-size, memory-mapped file of audit records together with its sparse block index. Records are written to
+ * {@code events_<period>.<sequence>.seg}, and every time a block is full, its index entry is appended
+ * to {@code events_<period>.<sequence>.idx}.
+ * <p>
+ * The segment file is mapped as a whole, writes go straight into the mapping and reads decode records from views
+ * of it without copying them to the heap first. Space which was not written yet is zero, so a record length of 0
+ * marks the end of the data. Since the file is sparse, unused space does not occupy any disk space.
+ */
+class MappedSegment extends Segment {
+    /**
+     * The fixed size of a segment file.
+     */
+    static final int SEGMENT_SIZE = 20 * 1024 * 1024;
+
+    /**
+     * How many records are grouped into one block of the sparse index.
+     */
+    private static final int BLOCK_RECORDS = 256;
+
+    private final Path dataPath;
+    private final Path indexPath;
+    private final boolean writable;
+    private final MappedByteBuffer mapping;
+    private DataOutputStream indexOut;
+
+    /**
+     * The completed blocks of this segment.
+     */
+    private final List<BlockIndex> blocks = new ArrayList<>();
+
+    /**
+     * The block which is currently being filled.
+     */
+    private BlockIndex.Builder current;
+
+    private MappedSegment(Path directory, String period, int sequence, boolean writable) throws IOException {
+        super(period, sequence);
+        this.dataPath = directory.resolve(getBaseName() + ".seg");
+        this.indexPath = directory.resolve(getBaseName() + ".idx");
+        this.writable = writable;
+
+        // The mapping stays valid after the channel is closed
+        if (writable) {
+            try (FileChannel channel = FileChannel.open(dataPath, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                this.mapping = channel.map(FileChannel.MapMode.READ_WRITE, 0, SEGMENT_SIZE);
+            }
+        } else {
+            try (FileChannel channel = FileChannel.open(dataPath, StandardOpenOption.READ)) {
+                this.mapping = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            }
+        }
+    }
+
+    /**
+     * Opens the segment with the given period and sequence number, creating it if it does not exist yet.
+     * Records which were written after the last complete block are re-indexed and a partially written
+     * record at the end of the data is ignored.
+     *
+     * @param directory the directory of the segment files
+     * @param period    the week the segment belongs to
+     * @param sequence  the sequence number of the segment inside its week
+     * @param writable  whether new records will be appended to this segment
+     * @return the opened segment
+     * @throws IOException if the segment could not be read
+     */
+    static MappedSegment open(Path directory, String period, int sequence, boolean writable) throws IOException {
+        MappedSegment segment = new MappedSegment(directory, period, sequence, writable);
+        segment.loadIndex();
+        segment.recoverTail();
+        segment.indexOut = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(segment.indexPath, StandardOpenOption.CREATE, StandardOpenOption.APPEND)));
+
+        return segment;
+    }
+
+    private void loadIndex() throws IOException {
+        if (!Files.exists(indexPath))
+            return;
+
+        long validLength = 0;
+        try (CountingInputStream counter = new CountingInputStream(new BufferedInputStream(Files.newInputStream(indexPath)));
+             DataInputStream in = new DataInputStream(counter)) {
+            while (true) {
+                blocks.add(BlockIndex.read(in));
+                validLength = counter.getByteCount();
+            }
+        } catch (EOFException ignored) {
+            // Reached the end of the index, a partially written entry is simply dropped
+        }
+
+        try (FileChannel indexChannel = FileChannel.open(indexPath, StandardOpenOption.WRITE)) {
+            indexChannel.truncate(validLength);
+        }
+    }
+
+    private void recoverTail() throws IOException {
+        int position = blocks.isEmpty() ? 0 : (int) (blocks.get(blocks.size() - 1).getOffset() + blocks.get(blocks.size() - 1).getLength());
+        current = new BlockIndex.Builder(position);
+
+        while (mapping.limit() - position >= AuditRecord.HEADER_SIZE) {
+            int length = mapping.getInt(position);
+            if (length < AuditRecord.HEADER_SIZE || length > mapping.limit() - position)
+                break;
+
+            current.add(mapping.getLong(position + 5), mapping.getLong(position + 13), mapping.getLong(position + 21), length);
+            position += length;
+
+            if (current.getCount() >= BLOCK_RECORDS) {
+                blocks.add(current.build());
+                current = new BlockIndex.Builder(current.getEnd());
+            }
+        }
+
+        // Blocks completed during recovery are not in the index file yet
+        if (!blocks.isEmpty()) {
+            rewriteIndex();
+        }
+    }
+
+    private void rewriteIndex() throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(indexPath)))) {
+            for (BlockIndex block : blocks) {
+                block.write(out);
+            }
+        }
+    }
+
+    /**
+     * Returns the number of bytes written to this segment.
+     *
+     * @return the size of this segment
+     */
+    synchronized long getSize() {
+        return current.getEnd();
+    }
+
+    /**
+     * Returns the timestamp of the newest record in this segment.
+     *
+     * @return the newest timestamp or {@link Long#MIN_VALUE} if the segment is empty
+     */
+    @Override
+    synchronized long getMaxTimestamp() {
+        if (current.getCount() > 0)
+            return current.build().getMaxTimestamp();
+
+        return blocks.isEmpty() ? Long.MIN_VALUE : blocks.get(blocks.size() - 1).getMaxTimestamp();
+    }
+
+    /**
+     * Appends the given encoded record to this segment, if there is enough space left.
+     *
+     * @param record the encoded record, as returned by {@link AuditRecord#encode}
+     * @return the offset of the record in this segment or -1 if the segment is full
+     * @throws IOException if the index could not be written
+     */
+    synchronized int append(ByteBuffer record) throws IOException {
+        if (!writable)
+            throw new IllegalStateException("Segment " + dataPath + " is read-only");
+
+        int length = record.remaining();
+        int position = (int) current.getEnd();
+
+        // Always keep room for the terminating zero length
+        if (position + length + 4 > SEGMENT_SIZE)
+            return -1;
+
+        int start = record.position();
+        mapping.put(position, record, start, length);
+        current.add(record.getLong(start + 5), record.getLong(start + 13), record.getLong(start + 21), length);
+
+        if (current.getCount() >= BLOCK_RECORDS) {
+            completeBlock();
+        }
+
+        return position;
+    }
+
+    private void completeBlock() throws IOException {
+        BlockIndex block = current.build();
+        blocks.add(block);
+        block.write(indexOut);
+        indexOut.flush();
+
+        current = new BlockIndex.Builder(current.getEnd());
+    }
+
+    /**
+     * Completes the current block and flushes the mapping, such that the whole segment is covered
+     * by the index file. Called when the segment is not written to anymore.
+     *
+     * @throws IOException if the index could not be written
+     */
+    synchronized void seal() throws IOException {
+        if (current.getCount() > 0) {
+            completeBlock();
+        }
+
+        if (writable) {
+            mapping.force();
+        }
+    }
+
+    /**
+     * Returns the index of all blocks in this segment, including the block currently being written.
+     *
+     * @return the blocks of this segment in the order they were written
+     */
+    @Override
+    synchronized List<BlockIndex> getBlocks() {
+        List<BlockIndex> snapshot = new ArrayList<>(blocks);
+        if (current.getCount() > 0) {
+            snapshot.add(current.build());
+        }
+
+        return snapshot;
+    }
+
+    /**
+     * Returns a read-only view of the records of the given block, without copying them.
+     *
+     * @param block the block to read
+     * @return a buffer positioned at the first record of the block
+     */
+    @Override
+    ByteBuffer viewBlock(BlockIndex block) {
+        return mapping.asReadOnlyBuffer().slice((int) block.getOffset(), block.getLength());
+    }
+
+    /**
+     * Closes the index of this segment. The mapping is released once the segment is garbage collected.
+     *
+     * @throws IOException if the index could not be closed
+     */
+    @Override
+    synchronized void close() throws IOException {
+        if (writable) {
+            mapping.force();
+        }
+
+        indexOut.close();
+    }
+
+    /**
+     * Closes and deletes this segment.
+     *
+     * @throws IOException if the files could not be deleted
+     */
+    @Override
+    synchronized void delete() throws IOException {
+        close();
+        Files.deleteIfExists(dataPath);
+        Files.deleteIfExists(indexPath);
+    }
+}
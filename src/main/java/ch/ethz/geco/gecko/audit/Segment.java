@@ -0,0 +1,97 @@
+package ch.ethz.geco.gecko.audit;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * A part of the audit log covering one week or a part of it. All records of a segment are grouped into
+ * blocks, which are described by a {@link BlockIndex} each.
+ */
+abstract class Segment {
+    private final String period;
+    private final int sequence;
+
+    Segment(String period, int sequence) {
+        this.period = period;
+        this.sequence = sequence;
+    }
+
+    /**
+     * Returns the week this segment belongs to, formatted as {@code yyyy-ww}.
+     *
+     * @return the period of this segment
+     */
+    String getPeriod() {
+        return period;
+    }
+
+    /**
+     * Returns the sequence number of this segment inside its week.
+     *
+     * @return the sequence number
+     */
+    int getSequence() {
+        return sequence;
+    }
+
+    /**
+     * Returns a number identifying this segment, which increases with the period and the sequence number.
+     * Together with the offset of a record inside the segment, it forms the reference of the record.
+     *
+     * @return the ID of this segment
+     */
+    long getId() {
+        long week = Long.parseLong(period.substring(0, 4)) * 100 + Long.parseLong(period.substring(5));
+        return week * 1000 + sequence;
+    }
+
+    /**
+     * Returns the common part of the file names of this segment.
+     *
+     * @return the base file name
+     */
+    String getBaseName() {
+        return "events_" + period + "." + sequence;
+    }
+
+    /**
+     * Returns the timestamp of the newest record in this segment.
+     *
+     * @return the newest timestamp or {@link Long#MIN_VALUE} if the segment is empty
+     */
+    long getMaxTimestamp() {
+        List<BlockIndex> blocks = getBlocks();
+        return blocks.isEmpty() ? Long.MIN_VALUE : blocks.get(blocks.size() - 1).getMaxTimestamp();
+    }
+
+    /**
+     * Returns the index of all blocks in this segment.
+     *
+     * @return the blocks of this segment in the order they were written
+     */
+    abstract List<BlockIndex> getBlocks();
+
+    /**
+     * Returns a read-only buffer containing all records of the given block.
+     *
+     * @param block the block to read
+     * @return a buffer positioned at the first record of the block
+     * @throws IOException if the block could not be read
+     */
+    abstract ByteBuffer viewBlock(BlockIndex block) throws IOException;
+
+    /**
+     * Closes the files of this segment.
+     *
+     * @throws IOException if the files could not be closed
+     */
+    abstract void close() throws IOException;
+
+    /**
+     * Closes and deletes this segment.
+     *
+     * @throws IOException if the files could not be deleted
+     */
+    abstract void delete() throws IOException;
+}
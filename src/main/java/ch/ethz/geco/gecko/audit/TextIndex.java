@@ -0,0 +1,626 @@
+package ch.ethz.geco.gecko.audit;
+
+import ch.ethz.geco.gecko.ErrorHandler;
+import ch.ethz.geco.gecko.GECko;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.LongPredicate;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Inverted index over the content of logged messages. New records are tokenized on a background thread and
+ * added to an in-memory table, which is written to an immutable {@link TextIndexSegment} once it is large enough.
+ * Whenever too many segments exist, they are merged into one, again in the background. Records which were not
+ * written to a segment yet when the bot stopped are indexed again from the {@link EventStore} on the next start.
+ * <p>
+ * Besides single terms, every pair of adjacent terms is indexed. Single terms and phrases of two terms are
+ * answered from the posting lists alone, longer phrases by intersecting the posting lists of their pairs and
+ * checking the remaining records, of which there are usually only a few.
+ */
+public class TextIndex {
+    /**
+     * The directory where all index segments are stored.
+     */
+    private static final Path directory = Paths.get("data", "audit", "text");
+
+    /**
+     * Segments of older versions have the extension {@code .fts} and no pairs. They are deleted on open, which
+     * indexes the whole audit log again.
+     */
+    private static final Pattern segmentPattern = Pattern.compile("text_(\\d+)\\.ft2");
+    private static final Pattern tokenPattern = Pattern.compile("[\\p{L}\\p{N}]+");
+
+    /**
+     * Longer tokens are ignored, they are usually encoded data and not something anybody searches for.
+     */
+    private static final int MAX_TOKEN_LENGTH = 64;
+
+    /**
+     * How many postings the in-memory table holds before it is written to a segment.
+     */
+    private static final int FLUSH_POSTINGS = 50_000;
+
+    /**
+     * How many segments may exist before they are merged.
+     */
+    private static final int MAX_SEGMENTS = 8;
+
+    /**
+     * The maximum number of matches a search collects.
+     */
+    public static final int MAX_RESULTS = 100;
+
+    /**
+     * How many records a search reads at most. Only phrases of three or more terms can have candidates which do
+     * not match, for all other searches this is a safety net.
+     */
+    private static final int MAX_CANDIDATES = 1000;
+
+    /**
+     * How many matches are shown per page.
+     */
+    public static final int PAGE_SIZE = 5;
+
+    /**
+     * Guards the in-memory tables and the segment list. Searches hold the read lock while reading postings,
+     * so a merge never deletes a segment which is still being read.
+     */
+    private static final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /**
+     * All index segments.
+     */
+    private static final List<TextIndexSegment> segments = new CopyOnWriteArrayList<>();
+
+    /**
+     * The postings which are not written to a segment yet.
+     */
+    private static Map<String, PostingList> memtable = new HashMap<>();
+    private static int memtablePostings = 0;
+
+    /**
+     * The postings which are currently written to a segment.
+     */
+    private static Map<String, PostingList> flushing = Collections.emptyMap();
+
+    /**
+     * The reference of the newest indexed record. Only accessed by the indexer.
+     */
+    private static long lastRef = 0;
+
+    private static int nextGeneration = 0;
+
+    /**
+     * Tokenizes new records and writes the in-memory table to segments.
+     */
+    private static ExecutorService indexer;
+
+    /**
+     * Merges segments.
+     */
+    private static ExecutorService merger;
+
+    /**
+     * Opens all existing index segments and indexes the records which are missing in them.
+     * Called by the {@link EventStore} once its segments are open.
+     */
+    static void open() {
+        indexer = Executors.newSingleThreadExecutor();
+        merger = Executors.newSingleThreadExecutor();
+
+        try {
+            Files.createDirectories(directory);
+
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "text_*")) {
+                for (Path path : stream) {
+                    Matcher matcher = segmentPattern.matcher(path.getFileName().toString());
+                    if (!matcher.matches()) {
+                        // Leftover of an interrupted flush or merge, or a segment of an older version
+                        Files.delete(path);
+                        continue;
+                    }
+
+                    TextIndexSegment segment = TextIndexSegment.open(path, Integer.parseInt(matcher.group(1)));
+                    segments.add(segment);
+                    lastRef = Math.max(lastRef, segment.getMaxRef());
+                    nextGeneration = Math.max(nextGeneration, segment.getGeneration() + 1);
+                }
+            }
+        } catch (IOException e) {
+            ErrorHandler.handleError(e);
+        }
+
+        indexer.execute(() -> {
+            long start = lastRef;
+            EventStore.replay(start, (ref, record) -> index(ref, record.getType(), record.getContent()));
+            GECko.logger.info("[TextIndex] Opened " + segments.size() + " text index segments, indexed " + memtablePostings + " postings from the audit log.");
+        });
+
+        scheduleMerge();
+    }
+
+    /**
+     * Queues a record for indexing, if it contains message content.
+     *
+     * @param ref     the reference of the record
+     * @param type    the type of the record
+     * @param content the content of the record
+     */
+    static void submit(long ref, AuditRecord.Type type, String content) {
+        if (type != AuditRecord.Type.MSG_CREATE && type != AuditRecord.Type.MSG_UPDATE)
+            return;
+
+        indexer.execute(() -> index(ref, type, content));
+    }
+
+    /**
+     * Adds the terms of a record to the in-memory table. Only called by the indexer.
+     *
+     * @param ref     the reference of the record
+     * @param type    the type of the record
+     * @param content the content of the record
+     */
+    private static void index(long ref, AuditRecord.Type type, String content) {
+        // Records can be both replayed and submitted while opening
+        if (ref <= lastRef)
+            return;
+
+        lastRef = ref;
+        if (type != AuditRecord.Type.MSG_CREATE && type != AuditRecord.Type.MSG_UPDATE)
+            return;
+
+        List<String> tokens = tokenize(content);
+        Set<String> terms = new HashSet<>(tokens);
+        terms.addAll(pairs(tokens));
+
+        lock.writeLock().lock();
+        try {
+            for (String term : terms) {
+                memtable.computeIfAbsent(term, key -> new PostingList()).add(ref);
+            }
+
+            memtablePostings += terms.size();
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        if (memtablePostings >= FLUSH_POSTINGS) {
+            flush();
+        }
+    }
+
+    /**
+     * Writes the in-memory table to a new segment. Only called by the indexer.
+     */
+    private static void flush() {
+        lock.writeLock().lock();
+        try {
+            if (memtable.isEmpty())
+                return;
+
+            flushing = memtable;
+            memtable = new HashMap<>();
+            memtablePostings = 0;
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        Map<String, PostingList> table = flushing;
+        TextIndexSegment segment = null;
+        try {
+            int generation = nextGeneration();
+            segment = TextIndexSegment.write(directory.resolve("text_" + generation + ".ft2"), generation, lastRef,
+                    new TreeSet<>(table.keySet()), term -> table.get(term).toArray());
+        } catch (IOException e) {
+            ErrorHandler.handleError(e);
+        }
+
+        lock.writeLock().lock();
+        try {
+            if (segment != null) {
+                segments.add(segment);
+            } else {
+                // Keep the postings in memory, they are written together with the next flush
+                table.forEach((term, postings) -> memtable.merge(term, postings, PostingList::prepend));
+            }
+
+            flushing = Collections.emptyMap();
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        scheduleMerge();
+    }
+
+    /**
+     * Merges all segments into one if there are too many of them. Postings of records whose audit log segment
+     * was deleted by the retention are dropped while merging.
+     */
+    private static void scheduleMerge() {
+        if (segments.size() <= MAX_SEGMENTS)
+            return;
+
+        merger.execute(() -> {
+            List<TextIndexSegment> inputs = new ArrayList<>(segments);
+            if (inputs.size() <= MAX_SEGMENTS)
+                return;
+
+            SortedSet<String> terms = new TreeSet<>();
+            long maxRef = 0;
+            for (TextIndexSegment input : inputs) {
+                terms.addAll(input.getTerms());
+                maxRef = Math.max(maxRef, input.getMaxRef());
+            }
+
+            TextIndexSegment merged;
+            try {
+                int generation = nextGeneration();
+
+                merged = TextIndexSegment.write(directory.resolve("text_" + generation + ".ft2"), generation, maxRef, terms, term -> {
+                    PostingList postings = new PostingList();
+                    for (TextIndexSegment input : inputs) {
+                        try {
+                            postings = PostingList.union(postings, input.getPostings(term));
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    }
+
+                    return postings.retain(ref -> EventStore.containsSegment(ref >>> 32)).toArray();
+                });
+            } catch (IOException | UncheckedIOException e) {
+                ErrorHandler.handleError(e);
+                return;
+            }
+
+            lock.writeLock().lock();
+            try {
+                segments.removeAll(inputs);
+                segments.add(merged);
+
+                for (TextIndexSegment input : inputs) {
+                    input.delete();
+                }
+            } catch (IOException e) {
+                ErrorHandler.handleError(e);
+            } finally {
+                lock.writeLock().unlock();
+            }
+
+            GECko.logger.debug("[TextIndex] Merged " + inputs.size() + " text index segments.");
+        });
+    }
+
+    private static synchronized int nextGeneration() {
+        return nextGeneration++;
+    }
+
+    /**
+     * Searches all indexed messages for the given text. A single term matches all messages containing it,
+     * multiple terms only match messages containing them in the same order.
+     *
+     * @param text the term or phrase to search for
+     * @param page the page of the result to return, starting at 1
+     * @return the requested page of the matching records, newest first
+     */
+    public static Result search(String text, int page) {
+        List<String> phrase = tokenize(text);
+        if (phrase.isEmpty())
+            return new Result(Collections.emptyList(), 0, page);
+
+        // Phrases of up to two terms are answered by the index alone, longer ones by the pairs they consist of
+        List<String> terms = new ArrayList<>(new HashSet<>(phrase.size() == 1 ? phrase : pairs(phrase)));
+        boolean exact = phrase.size() <= 2;
+
+        // The sources hold disjoint ranges of records, so they are searched newest first until there are enough candidates
+        long[] candidates = new long[MAX_CANDIDATES];
+        int count = 0;
+        lock.readLock().lock();
+        try {
+            List<PostingSource> sources = new ArrayList<>();
+            sources.add(PostingSource.of(memtable));
+            sources.add(PostingSource.of(flushing));
+
+            List<TextIndexSegment> sorted = new ArrayList<>(segments);
+            sorted.sort(Comparator.comparingLong(TextIndexSegment::getMaxRef).reversed());
+            for (TextIndexSegment segment : sorted) {
+                sources.add(PostingSource.of(segment));
+            }
+
+            for (PostingSource source : sources) {
+                if (count == MAX_CANDIDATES)
+                    break;
+
+                // Start with the rarest term, a term the source does not contain rules it out without reading anything
+                terms.sort(Comparator.comparingInt(source::count));
+                if (source.count(terms.get(0)) == 0)
+                    continue;
+
+                long[] matches = source.get(terms.get(0));
+                for (int i = 1; i < terms.size() && matches.length > 0; i++) {
+                    matches = PostingList.intersect(matches, source.get(terms.get(i)));
+                }
+
+                for (int i = matches.length - 1; i >= 0 && count < MAX_CANDIDATES; i--) {
+                    candidates[count++] = matches[i];
+                }
+            }
+        } catch (IOException e) {
+            ErrorHandler.handleError(e);
+            return new Result(Collections.emptyList(), 0, page);
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        // Read the candidates newest first until enough matches are found. Records deleted by the retention are skipped.
+        List<AuditRecord> matches = new ArrayList<>();
+        for (int from = 0; from < count && matches.size() < MAX_RESULTS; from += MAX_RESULTS) {
+            long[] batch = Arrays.copyOfRange(candidates, from, Math.min(count, from + MAX_RESULTS));
+            for (AuditRecord record : EventStore.getRecords(batch)) {
+                if (record != null && matches.size() < MAX_RESULTS && (exact || containsPhrase(tokenize(record.getContent()), phrase))) {
+                    matches.add(record);
+                }
+            }
+        }
+
+        int from = Math.min((page - 1) * PAGE_SIZE, matches.size());
+        int to = Math.min(from + PAGE_SIZE, matches.size());
+        return new Result(new ArrayList<>(matches.subList(from, to)), matches.size(), page);
+    }
+
+    /**
+     * Splits the given text into lower case terms.
+     *
+     * @param text the text to split
+     * @return the terms of the text in order
+     */
+    static List<String> tokenize(String text) {
+        List<String> tokens = new ArrayList<>();
+        if (text == null)
+            return tokens;
+
+        Matcher matcher = tokenPattern.matcher(text);
+        while (matcher.find()) {
+            if (matcher.end() - matcher.start() <= MAX_TOKEN_LENGTH) {
+                tokens.add(matcher.group().toLowerCase(Locale.ROOT));
+            }
+        }
+
+        return tokens;
+    }
+
+    /**
+     * Returns the pairs of adjacent terms, which are indexed as the two terms separated by a space. Terms never
+     * contain spaces, so the pairs do not clash with single terms.
+     *
+     * @param tokens the terms in order
+     * @return the pairs in order
+     */
+    private static List<String> pairs(List<String> tokens) {
+        List<String> pairs = new ArrayList<>(Math.max(0, tokens.size() - 1));
+        for (int i = 1; i < tokens.size(); i++) {
+            pairs.add(tokens.get(i - 1) + " " + tokens.get(i));
+        }
+
+        return pairs;
+    }
+
+    private static boolean containsPhrase(List<String> tokens, List<String> phrase) {
+        return Collections.indexOfSubList(tokens, phrase) >= 0;
+    }
+
+    /**
+     * Writes the in-memory table to a segment and stops the background threads.
+     */
+    static void close() {
+        if (indexer == null)
+            return;
+
+        indexer.execute(TextIndex::flush);
+        for (ExecutorService executor : List.of(indexer, merger)) {
+            executor.shutdown();
+            try {
+                executor.awaitTermination(30, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        for (TextIndexSegment segment : segments) {
+            try {
+                segment.close();
+            } catch (IOException e) {
+                ErrorHandler.handleError(e);
+            }
+        }
+
+        segments.clear();
+        memtable = new HashMap<>();
+        memtablePostings = 0;
+        lastRef = 0;
+        indexer = null;
+    }
+
+    /**
+     * One page of a search result.
+     */
+    public static class Result {
+        private final List<AuditRecord> records;
+        private final int total;
+        private final int page;
+
+        Result(List<AuditRecord> records, int total, int page) {
+            this.records = records;
+            this.total = total;
+            this.page = page;
+        }
+
+        /**
+         * Returns the matching records on this page, newest first.
+         *
+         * @return the records on this page
+         */
+        public List<AuditRecord> getRecords() {
+            return records;
+        }
+
+        /**
+         * Returns the number of matches, which is at most {@link #MAX_RESULTS}.
+         *
+         * @return the number of matches
+         */
+        public int getTotal() {
+            return total;
+        }
+
+        public int getPage() {
+            return page;
+        }
+
+        public int getPageCount() {
+            return (total + PAGE_SIZE - 1) / PAGE_SIZE;
+        }
+
+        /**
+         * Returns whether there were more matches than {@link #MAX_RESULTS}.
+         *
+         * @return whether the matches were capped
+         */
+        public boolean isCapped() {
+            return total >= MAX_RESULTS;
+        }
+    }
+
+    /**
+     * The postings of one segment or in-memory table. Only used while holding the read lock.
+     */
+    private interface PostingSource {
+        /**
+         * Returns the number of records containing the given term, without reading them.
+         */
+        int count(String term);
+
+        long[] get(String term) throws IOException;
+
+        static PostingSource of(Map<String, PostingList> table) {
+            return new PostingSource() {
+                @Override
+                public int count(String term) {
+                    PostingList postings = table.get(term);
+                    return postings != null ? postings.size() : 0;
+                }
+
+                @Override
+                public long[] get(String term) {
+                    PostingList postings = table.get(term);
+                    return postings != null ? postings.toArray() : new long[0];
+                }
+            };
+        }
+
+        static PostingSource of(TextIndexSegment segment) {
+            return new PostingSource() {
+                @Override
+                public int count(String term) {
+                    return segment.getPostingCount(term);
+                }
+
+                @Override
+                public long[] get(String term) throws IOException {
+                    return segment.getPostings(term);
+                }
+            };
+        }
+    }
+
+    /**
+     * A growable, ascending list of record references.
+     */
+    private static class PostingList {
+        private long[] refs = new long[4];
+        private int size = 0;
+
+        void add(long ref) {
+            if (size > 0 && refs[size - 1] == ref)
+                return;
+
+            if (size == refs.length) {
+                refs = Arrays.copyOf(refs, size * 2);
+            }
+
+            refs[size++] = ref;
+        }
+
+        int size() {
+            return size;
+        }
+
+        long[] toArray() {
+            return Arrays.copyOf(refs, size);
+        }
+
+        PostingList retain(LongPredicate predicate) {
+            PostingList result = new PostingList();
+            for (int i = 0; i < size; i++) {
+                if (predicate.test(refs[i])) {
+                    result.add(refs[i]);
+                }
+            }
+
+            return result;
+        }
+
+        /**
+         * Returns the given older postings followed by the newer postings.
+         */
+        static PostingList prepend(PostingList newer, PostingList older) {
+            return union(older, newer.toArray());
+        }
+
+        static PostingList union(PostingList list, long[] other) {
+            PostingList result = new PostingList();
+            int i = 0;
+            int j = 0;
+            while (i < list.size || j < other.length) {
+                if (j == other.length || (i < list.size && list.refs[i] <= other[j])) {
+                    result.add(list.refs[i++]);
+                } else {
+                    result.add(other[j++]);
+                }
+            }
+
+            return result;
+        }
+
+        static long[] intersect(long[] first, long[] second) {
+            long[] result = new long[Math.min(first.length, second.length)];
+            int size = 0;
+            for (int i = 0, j = 0; i < first.length && j < second.length; ) {
+                if (first[i] < second[j]) {
+                    i++;
+                } else if (first[i] > second[j]) {
+                    j++;
+                } else {
+                    result[size++] = first[i];
+                    i++;
+                    j++;
+                }
+            }
+
+            return Arrays.copyOf(result, size);
+        }
+    }
+}
@@ -0,0 +1,210 @@
+package ch.ethz.geco.gecko.audit;
+
+import org.apache.commons.io.input.CountingInputStream;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.function.Function;
+
+/**
+ * An immutable part of the full-text index, stored in {@code text_<generation>.ft2}. The file contains the
+ * posting lists of all its terms, sorted by term:
+ * <pre>
+ * int    magic number
+ * long   the newest record reference covered by this segment
+ * int    number of terms
+ * for each term:
+ *   UTF    term
+ *   int    number of postings
+ *   int    length of the encoded postings
+ *   bytes  record references, ascending and delta-encoded as variable length integers
+ * </pre>
+ * Only the term dictionary is kept in memory, posting lists are read from disk on demand.
+ */
+class TextIndexSegment {
+    private static final int MAGIC = 0x4745_4654;
+
+    private final Path path;
+    private final int generation;
+    private final long maxRef;
+    private final FileChannel channel;
+
+    /**
+     * Maps each term to the position and length of its postings in the file.
+     */
+    private final Map<String, long[]> dictionary = new TreeMap<>();
+
+    private TextIndexSegment(Path path, int generation) throws IOException {
+        this.path = path;
+        this.generation = generation;
+        this.channel = FileChannel.open(path, StandardOpenOption.READ);
+
+        try (CountingInputStream counter = new CountingInputStream(new BufferedInputStream(Files.newInputStream(path)));
+             DataInputStream in = new DataInputStream(counter)) {
+            if (in.readInt() != MAGIC)
+                throw new IOException("Not a text index segment: " + path);
+
+            maxRef = in.readLong();
+            int terms = in.readInt();
+            for (int i = 0; i < terms; i++) {
+                String term = in.readUTF();
+                int count = in.readInt();
+                int length = in.readInt();
+                dictionary.put(term, new long[]{counter.getByteCount(), length, count});
+                in.skipNBytes(length);
+            }
+        }
+    }
+
+    /**
+     * Opens an existing index segment.
+     *
+     * @param path       the file of the segment
+     * @param generation the generation of the segment
+     * @return the opened segment
+     * @throws IOException if the segment could not be read
+     */
+    static TextIndexSegment open(Path path, int generation) throws IOException {
+        return new TextIndexSegment(path, generation);
+    }
+
+    /**
+     * Writes a new index segment. The file is written to a temporary file first and renamed once it is complete.
+     *
+     * @param path       the file of the new segment
+     * @param generation the generation of the new segment
+     * @param maxRef     the newest record reference covered by the new segment
+     * @param terms      all terms of the new segment
+     * @param postings   returns the ascending record references of a term
+     * @return the new segment
+     * @throws IOException if the segment could not be written
+     */
+    static TextIndexSegment write(Path path, int generation, long maxRef, SortedSet<String> terms, Function<String, long[]> postings) throws IOException {
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+
+        try (FileOutputStream fileOut = new FileOutputStream(temp.toFile());
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut))) {
+            out.writeInt(MAGIC);
+            out.writeLong(maxRef);
+            out.writeInt(terms.size());
+
+            ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+            for (String term : terms) {
+                long[] refs = postings.apply(term);
+
+                encoded.reset();
+                long previous = 0;
+                for (long ref : refs) {
+                    writeVarLong(encoded, ref - previous);
+                    previous = ref;
+                }
+
+                out.writeUTF(term);
+                out.writeInt(refs.length);
+                out.writeInt(encoded.size());
+                encoded.writeTo(out);
+            }
+
+            out.flush();
+            fileOut.getChannel().force(true);
+        }
+
+        Files.move(temp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+
+        return open(path, generation);
+    }
+
+    int getGeneration() {
+        return generation;
+    }
+
+    long getMaxRef() {
+        return maxRef;
+    }
+
+    /**
+     * Returns all terms of this segment in ascending order.
+     *
+     * @return the terms of this segment
+     */
+    Set<String> getTerms() {
+        return Collections.unmodifiableSet(dictionary.keySet());
+    }
+
+    /**
+     * Returns how many records contain the given term, without reading its postings.
+     *
+     * @param term the term to look up
+     * @return the number of postings of the term
+     */
+    int getPostingCount(String term) {
+        long[] entry = dictionary.get(term);
+        return entry != null ? (int) entry[2] : 0;
+    }
+
+    /**
+     * Reads the postings of the given term.
+     *
+     * @param term the term to look up
+     * @return the ascending record references containing the term
+     * @throws IOException if the postings could not be read
+     */
+    long[] getPostings(String term) throws IOException {
+        long[] entry = dictionary.get(term);
+        if (entry == null)
+            return new long[0];
+
+        ByteBuffer buffer = ByteBuffer.allocate((int) entry[1]);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, entry[0] + buffer.position()) < 0)
+                throw new EOFException("Unexpected end of text index " + path);
+        }
+        buffer.flip();
+
+        long[] refs = new long[(int) entry[2]];
+        long previous = 0;
+        for (int i = 0; i < refs.length; i++) {
+            previous += readVarLong(buffer);
+            refs[i] = previous;
+        }
+
+        return refs;
+    }
+
+    void close() throws IOException {
+        channel.close();
+    }
+
+    void delete() throws IOException {
+        close();
+        Files.deleteIfExists(path);
+    }
+
+    private static void writeVarLong(OutputStream out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+
+        out.write((int) value);
+    }
+
+    private static long readVarLong(ByteBuffer buffer) {
+        long value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = buffer.get();
+            value |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+
+        return value;
+    }
+}
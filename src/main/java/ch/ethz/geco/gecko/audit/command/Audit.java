@@ -0,0 +1,179 @@
+package ch.ethz.geco.gecko.audit.command;
+
+import ch.ethz.geco.gecko.audit.AuditQuery;
+import ch.ethz.geco.gecko.audit.AuditRecord;
+import ch.ethz.geco.gecko.audit.EventStore;
+import ch.ethz.geco.gecko.audit.TextIndex;
+import ch.ethz.geco.gecko.command.Command;
+import ch.ethz.geco.gecko.command.CommandUtils;
+import discord4j.core.object.entity.Message;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+public class Audit extends Command {
+    public static Pattern targetPattern = Pattern.compile("^(?><@!?(\\d{1,19})>|<#(\\d{1,19})>|(\\d{1,19}))$");
+    public static Pattern durationPattern = Pattern.compile("^(\\d{1,5})([smhdw])$");
+
+    /**
+     * How many records are shown at most.
+     */
+    private static final int MAX_RECORDS = 20;
+
+    /**
+     * The maximum length of a discord message.
+     */
+    private static final int MAX_MESSAGE_LENGTH = 2000;
+
+    public Audit() {
+        this.setName("audit");
+        this.setParams("<@user | #channel | userID | all> [since <duration>] | search <text> [page]");
+        this.setDescription("Shows the latest audit log entries of a user, a channel or of everything, e.g. `since 2d`, or searches the content of logged messages for a word or phrase.");
+        this.getPermissions().setAdminOnly(true);
+    }
+
+    @Override
+    public void execute(Message msg, List<String> args) {
+        if (args.isEmpty()) {
+            printUsage(msg).subscribe();
+            return;
+        }
+
+        if (args.get(0).equals("search")) {
+            search(msg, args);
+            return;
+        }
+
+        long userID = 0;
+        long channelID = 0;
+        Matcher matcher = targetPattern.matcher(args.get(0));
+        if (args.get(0).equals("all")) {
+            // Tail of the whole log
+        } else if (matcher.find()) {
+            try {
+                if (matcher.group(2) != null) {
+                    channelID = Long.parseLong(matcher.group(2));
+                } else if (matcher.group(1) != null) {
+                    userID = Long.parseLong(matcher.group(1));
+                } else {
+                    userID = Long.parseLong(matcher.group(3));
+                }
+            } catch (NumberFormatException e) {
+                // 19 digits which do not fit into a long
+                printUsage(msg).subscribe();
+                return;
+            }
+        } else {
+            printUsage(msg).subscribe();
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        long from = 0;
+        if (args.size() >= 3 && args.get(1).equals("since")) {
+            Duration duration = parseDuration(args.get(2));
+            if (duration == null) {
+                printUsage(msg).subscribe();
+                return;
+            }
+
+            from = now - duration.toMillis();
+        }
+
+        List<AuditRecord> records = EventStore.query(new AuditQuery(userID, channelID, from, now, MAX_RECORDS));
+
+        if (records.isEmpty()) {
+            CommandUtils.respond(msg, "No audit log entries found.").subscribe();
+            return;
+        }
+
+        // Show the newest records which fit into one message, oldest first
+        StringBuilder content = new StringBuilder();
+        for (AuditRecord record : records) {
+            String entry = record.render();
+            if (entry.length() > MAX_MESSAGE_LENGTH / 2)
+                entry = entry.substring(0, MAX_MESSAGE_LENGTH / 2) + "…";
+            entry += "\n";
+
+            if (content.length() + entry.length() + 8 > MAX_MESSAGE_LENGTH)
+                break;
+
+            content.insert(0, entry);
+        }
+
+        CommandUtils.respond(msg, "```\n" + content + "```").subscribe();
+    }
+
+    /**
+     * Handles {@code search <text> [page]}. The text can either be quoted or span all remaining arguments.
+     *
+     * @param msg  the message containing the command
+     * @param args the arguments of the command, starting with {@code search}
+     */
+    private void search(Message msg, List<String> args) {
+        int end = args.size();
+        int page = 1;
+        if (end > 2 && args.get(end - 1).matches("\\d{1,3}")) {
+            page = Math.max(1, Integer.parseInt(args.get(end - 1)));
+            end--;
+        }
+
+        String text = String.join(" ", args.subList(1, end));
+        if (text.isBlank()) {
+            printUsage(msg).subscribe();
+            return;
+        }
+
+        TextIndex.Result result = TextIndex.search(text, page);
+        if (result.getRecords().isEmpty()) {
+            CommandUtils.respond(msg, result.getTotal() == 0 ? "No logged messages found." : "There are only " + result.getPageCount() + " pages of results.").subscribe();
+            return;
+        }
+
+        String header = "Page " + result.getPage() + "/" + result.getPageCount() + " of " + result.getTotal() +
+                (result.isCapped() ? "+" : "") + " matches, newest first:\n";
+
+        // Every record gets an equal share of the message
+        int maxEntryLength = (MAX_MESSAGE_LENGTH - header.length() - 8) / result.getRecords().size() - 1;
+        StringBuilder content = new StringBuilder();
+        for (AuditRecord record : result.getRecords()) {
+            String entry = record.render();
+            if (entry.length() > maxEntryLength)
+                entry = entry.substring(0, maxEntryLength - 1) + "…";
+
+            content.append(entry).append("\n");
+        }
+
+        CommandUtils.respond(msg, header + "```\n" + content + "```").subscribe();
+    }
+
+    /**
+     * Parses durations like {@code 30m}, {@code 2d} or {@code 1w}.
+     *
+     * @param text the text to parse
+     * @return the parsed duration or null if the text is not a valid duration
+     */
+    private static Duration parseDuration(String text) {
+        Matcher matcher = durationPattern.matcher(text);
+        if (!matcher.find())
+            return null;
+
+        long amount = Long.parseLong(matcher.group(1));
+        switch (matcher.group(2)) {
+            case "s":
+                return Duration.ofSeconds(amount);
+            case "m":
+                return Duration.ofMinutes(amount);
+            case "h":
+                return Duration.ofHours(amount);
+            case "d":
+                return Duration.ofDays(amount);
+            case "w":
+                return Duration.ofDays(amount * 7);
+            default:
+                return null;
+        }
+    }
+}
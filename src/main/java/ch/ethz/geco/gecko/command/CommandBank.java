@@ -21,6 +21,7 @@ package ch.ethz.geco.gecko.command;
 
 import ch.ethz.geco.gecko.command.core.Ping;
 import ch.ethz.geco.gecko.command.core.Restart;
+import ch.ethz.geco.gecko.command.core.Status;
 import ch.ethz.geco.gecko.command.misc.Whois;
 
 /**
@@ -34,6 +35,7 @@ public class CommandBank {
         // Core
         CommandRegistry.registerCommand(new Ping());
         CommandRegistry.registerCommand(new Restart());
+        CommandRegistry.registerCommand(new Status());
 
         // Misc
         CommandRegistry.registerCommand(new Whois());
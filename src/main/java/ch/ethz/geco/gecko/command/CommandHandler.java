@@ -19,17 +19,16 @@
 
 package ch.ethz.geco.gecko.command;
 
-import ch.ethz.geco.gecko.ErrorHandler;
 import ch.ethz.geco.gecko.GECko;
+import ch.ethz.geco.gecko.Shutdown;
 import discord4j.core.event.domain.message.MessageCreateEvent;
 import discord4j.core.object.entity.Message;
-import discord4j.discordjson.json.ImmutableMessageData;
+import discord4j.discordjson.Id;
 import discord4j.discordjson.json.MessageData;
 import org.apache.commons.text.StrTokenizer;
 import org.jetbrains.annotations.Contract;
 import reactor.core.publisher.Mono;
 
-import java.lang.reflect.Field;
 import java.util.Arrays;
 import java.util.List;
 
@@ -37,7 +36,7 @@ public class CommandHandler {
     /**
      * The current default command prefix if no prefix was defined inside the command.
      */
-    private static String defaultPrefix = "!";
+    private static volatile String defaultPrefix = "!";
 
     @Contract(pure = true)
     public static String getDefaultPrefix() {
@@ -54,33 +53,23 @@ public class CommandHandler {
     }
 
     /**
-     * Injects the private channel of the author into the message.
+     * Returns a copy of the message which is located in the private channel of the author, so that replies
+     * to it are sent privately.
      *
-     * @param msg the message where to inject the private channel
-     * @return the message after injection
+     * @param msg the message to move to the private channel
+     * @return the copy of the message in the private channel
      */
     private static Mono<Message> injectPrivateChannel(Message msg) {
         if (!msg.getAuthor().isPresent())
             return Mono.just(msg);
 
         return msg.getAuthor().get().getPrivateChannel().map(privateChannel -> {
-            try {
-                // Access private field of message
-                Field dataField = msg.getClass().getDeclaredField("data");
-                dataField.setAccessible(true);
-                ImmutableMessageData data = (ImmutableMessageData) dataField.get(msg);
-
-                Field channelIDField = data.getClass().getDeclaredField("channelId_value");
-                channelIDField.setAccessible(true);
-                channelIDField.setLong(data, privateChannel.getId().asLong());
-
-                channelIDField.setAccessible(false);
-                dataField.setAccessible(false);
-            } catch (NoSuchFieldException | IllegalAccessException e) {
-                ErrorHandler.handleError(e);
-            }
+            MessageData data = MessageData.builder()
+                    .from(msg.getData())
+                    .channelId(Id.of(privateChannel.getId().asLong()))
+                    .build();
 
-            return msg;
+            return new Message(msg.getClient(), data);
         });
     }
 
@@ -92,7 +81,7 @@ public class CommandHandler {
     public static void handle(MessageCreateEvent messageCreateEvent) {
         Message message = messageCreateEvent.getMessage();
 
-        if (message.getContent().isBlank())
+        if (message.getContent().isBlank() || Shutdown.isDraining())
             return;
 
         String text = message.getContent();
@@ -137,7 +126,12 @@ public class CommandHandler {
                             args = tokens.subList(2, tokens.size());
                             GECko.logger.debug("Calling mention command <" + tokens.get(1) + "> with arguments: " + args.toString());
                         }
-                        command.execute(msg, args);
+                        Shutdown.begin();
+                        try {
+                            command.execute(msg, args);
+                        } finally {
+                            Shutdown.end();
+                        }
                     } else {
                         CommandUtils.respond(msg, "You are not permitted to use this command.").subscribe();
                     }
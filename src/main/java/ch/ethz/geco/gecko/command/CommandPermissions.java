@@ -19,6 +19,7 @@
 
 package ch.ethz.geco.gecko.command;
 
+import ch.ethz.geco.gecko.ConfigManager;
 import ch.ethz.geco.gecko.GECko;
 import discord4j.common.util.Snowflake;
 import discord4j.core.object.entity.Member;
@@ -34,6 +35,11 @@ import java.util.Set;
 public class CommandPermissions {
     private final Set<Snowflake> permittedRoleIDs = new HashSet<>();
 
+    /**
+     * Whether the admin roles from the config are permitted as well.
+     */
+    private boolean adminOnly = false;
+
     /**
      * Returns a Set of permitted role ID's.
      *
@@ -52,6 +58,16 @@ public class CommandPermissions {
         permittedRoleIDs.add(roleID);
     }
 
+    /**
+     * Restricts the command to the admin roles configured in {@code main_adminRoleIDs}. Changes to the config
+     * apply immediately.
+     *
+     * @param adminOnly whether only admins may use the command
+     */
+    public void setAdminOnly(boolean adminOnly) {
+        this.adminOnly = adminOnly;
+    }
+
     /**
      * Checks if a member is permitted (has one the roles specified as permitted in the command)
      *
@@ -62,12 +78,13 @@ public class CommandPermissions {
         if (member == null)
             return false;
 
-        if (permittedRoleIDs.isEmpty()) {
+        if (permittedRoleIDs.isEmpty() && !adminOnly) {
             return true;
         }
 
+        Set<Snowflake> adminRoleIDs = ConfigManager.get().getAdminRoleIds();
         for (Snowflake userRole : member.getRoleIds()) {
-            if (permittedRoleIDs.contains(userRole)) {
+            if (permittedRoleIDs.contains(userRole) || (adminOnly && adminRoleIDs.contains(userRole))) {
                 return true;
             }
         }
@@ -23,26 +23,26 @@ import ch.ethz.geco.gecko.GECko;
 import org.jetbrains.annotations.Contract;
 import org.jetbrains.annotations.Nullable;
 
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class CommandRegistry {
     /**
      * Stores a mapping of all registered prefixes and another map with a mapping of all command names with the command.
      */
-    private static final Map<String, Map<String, Command>> prefixCommands = new HashMap<>();
+    private static final Map<String, Map<String, Command>> prefixCommands = new ConcurrentHashMap<>();
 
     /**
      * Stores a mapping of all mention commands with the corresponding commands.
      */
-    private static final Map<String, Command> mentionCommands = new HashMap<>();
+    private static final Map<String, Command> mentionCommands = new ConcurrentHashMap<>();
 
     /**
      * Used to register a new command. After registering, a command will be triggered if a matching message arrives.
      *
      * @param cmd the command to register
      */
-    public static void registerCommand(Command cmd) {
+    public static synchronized void registerCommand(Command cmd) {
         // If it's a mention command
         if (cmd.isMentionCommand()) {
             for (String alias : cmd.getNames()) {
@@ -60,9 +60,9 @@ public class CommandRegistry {
                 prefix = CommandHandler.getDefaultPrefix();
             }
 
-            // Add new HashMap if not existing
+            // Add new map if not existing
             if (!prefixCommands.containsKey(prefix)) {
-                prefixCommands.put(prefix, new HashMap<>());
+                prefixCommands.put(prefix, new ConcurrentHashMap<>());
             }
 
             // Put command into matching prefix map
@@ -76,6 +76,14 @@ public class CommandRegistry {
         }
     }
 
+    /**
+     * Removes all registered commands. Used when the subsystems are restarted, which register their commands again.
+     */
+    public static synchronized void clear() {
+        prefixCommands.clear();
+        mentionCommands.clear();
+    }
+
     /**
      * Used to find and get a command from the registry.
      *
@@ -19,6 +19,7 @@
 
 package ch.ethz.geco.gecko.command;
 
+import ch.ethz.geco.gecko.Shutdown;
 import discord4j.core.object.entity.Message;
 import discord4j.core.object.entity.channel.MessageChannel;
 import discord4j.core.spec.legacy.LegacyEmbedCreateSpec;
@@ -26,6 +27,9 @@ import reactor.core.publisher.Mono;
 
 import java.util.function.Consumer;
 
+/**
+ * Helpers to respond to commands. All requests are tracked, such that a shutdown waits until they are sent.
+ */
 public class CommandUtils {
     /**
      * Responds to the given message.
@@ -57,7 +61,7 @@ public class CommandUtils {
      * @return the response message
      */
     public static Mono<Message> respond(Mono<MessageChannel> channel, String text) {
-        return channel.flatMap(messageChannel -> messageChannel.createMessage(text));
+        return Shutdown.track(channel.flatMap(messageChannel -> messageChannel.createMessage(text)));
     }
 
     /**
@@ -68,7 +72,7 @@ public class CommandUtils {
      * @return the response message
      */
     public static Mono<Message> respond(Mono<MessageChannel> channel, Consumer<LegacyEmbedCreateSpec> embed) {
-        return channel.flatMap(messageChannel -> messageChannel.createMessage(messageCreateSpec -> messageCreateSpec.setEmbed(embed)));
+        return Shutdown.track(channel.flatMap(messageChannel -> messageChannel.createMessage(messageCreateSpec -> messageCreateSpec.setEmbed(embed))));
     }
 
     /**
@@ -79,7 +83,7 @@ public class CommandUtils {
      * @return the edited message
      */
     public static Mono<Message> editMessage(Message msg, String text) {
-        return msg.edit(messageEditSpec -> messageEditSpec.setContent(text));
+        return Shutdown.track(msg.edit(messageEditSpec -> messageEditSpec.setContent(text)));
     }
 
     /**
@@ -90,7 +94,7 @@ public class CommandUtils {
      * @return the edited message
      */
     public static Mono<Message> editMessage(Message msg, Consumer<LegacyEmbedCreateSpec> embed) {
-        return msg.edit(messageEditSpec -> messageEditSpec.setEmbed(embed));
+        return Shutdown.track(msg.edit(messageEditSpec -> messageEditSpec.setEmbed(embed)));
     }
 
     /**
@@ -99,6 +103,6 @@ public class CommandUtils {
      * @param msg the message which triggered this command
      */
     public static Mono<Void> deleteMessage(Message msg) {
-        return msg.delete();
+        return Shutdown.track(msg.delete());
     }
 }
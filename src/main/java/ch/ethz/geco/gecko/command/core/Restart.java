@@ -20,9 +20,10 @@
 package ch.ethz.geco.gecko.command.core;
 
 import ch.ethz.geco.gecko.GECko;
+import ch.ethz.geco.gecko.Shutdown;
+import ch.ethz.geco.gecko.Subsystems;
 import ch.ethz.geco.gecko.command.Command;
 import ch.ethz.geco.gecko.command.CommandUtils;
-import discord4j.common.util.Snowflake;
 import discord4j.core.object.entity.Message;
 
 import java.util.List;
@@ -30,18 +31,38 @@ import java.util.List;
 public class Restart extends Command {
     public Restart() {
         this.setName("restart");
-        this.setDescription("Restarts the bot.");
-        this.getPermissions().addPermittedRoleID(Snowflake.of(248454555438678017L));
-        this.getPermissions().addPermittedRoleID(Snowflake.of(687777083044134919L));
+        this.setParams("[full]");
+        this.setDescription("Restarts all subsystems of the bot. Use full to restart the whole process, e.g. after an upgrade.");
+        this.getPermissions().setAdminOnly(true);
     }
 
     @Override
     public void execute(Message msg, List<String> args) {
+        if (args.isEmpty()) {
+            CommandUtils.respond(msg, "**Restarting subsystems...**").subscribe();
+
+            // Not on the event thread, the restart stops the command handler which called us
+            new Thread(() -> {
+                long duration = Subsystems.restart();
+                if (duration < 0) {
+                    CommandUtils.respond(msg, "A restart or the startup is still running, try again once it is done.").subscribe();
+                } else {
+                    CommandUtils.respond(msg, "**Restarted in " + duration + "ms.**").subscribe();
+                }
+            }, "Restart").start();
+            return;
+        }
+
+        if (!args.get(0).equalsIgnoreCase("full")) {
+            printUsage(msg).subscribe();
+            return;
+        }
+
         CommandUtils.respond(msg, "**Restarting bot...**").subscribe();
 
-        GECko.logger.debug("[Restart] - Logging out...");
-        GECko.discordClient.logout().block();
-        GECko.logger.debug("[Restart] - calling System.exit(0)...");
-        new Thread(() -> System.exit(0)).start();
+        // No logout, closing the gateway connection cleanly would invalidate the session the next process resumes.
+        // The shutdown hook waits until the reply above is sent, the launcher then starts the bot again.
+        GECko.logger.debug("[Restart] - exiting for restart...");
+        Shutdown.exit(Shutdown.EXIT_RESTART);
     }
 }
@@ -0,0 +1,48 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org>
+ */
+
+package ch.ethz.geco.gecko.command.core;
+
+import ch.ethz.geco.gecko.Subsystems;
+import ch.ethz.geco.gecko.command.Command;
+import ch.ethz.geco.gecko.command.CommandUtils;
+import discord4j.core.object.entity.Message;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Shows which subsystems are ready. Commands are handled while the other subsystems are still starting.
+ */
+public class Status extends Command {
+    public Status() {
+        this.setNames(new String[]{"status"});
+        this.setDescription("Shows the state of all subsystems of the bot.");
+    }
+
+    @Override
+    public void execute(Message msg, List<String> args) {
+        StringBuilder status = new StringBuilder("**Subsystems**");
+        for (Map.Entry<String, Subsystems.State> subsystem : Subsystems.getStates().entrySet()) {
+            status.append("\n").append(subsystem.getKey()).append(": ").append(subsystem.getValue().name().toLowerCase());
+        }
+
+        CommandUtils.respond(msg, status.toString()).subscribe();
+    }
+}
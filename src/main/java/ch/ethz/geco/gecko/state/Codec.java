@@ -0,0 +1,32 @@
+package ch.ethz.geco.gecko.state;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Converts the values of a {@link Namespace} to and from their binary form. Codecs write plain fields, so the
+ * stored state does not depend on class names or Java serialization.
+ *
+ * @param <V> the type of the values
+ */
+public interface Codec<V> {
+    /**
+     * Stores a single long, like a timestamp.
+     */
+    Codec<Long> LONG = new Codec<>() {
+        @Override
+        public void write(DataOutput out, Long value) throws IOException {
+            out.writeLong(value);
+        }
+
+        @Override
+        public Long read(DataInput in) throws IOException {
+            return in.readLong();
+        }
+    };
+
+    void write(DataOutput out, V value) throws IOException;
+
+    V read(DataInput in) throws IOException;
+}
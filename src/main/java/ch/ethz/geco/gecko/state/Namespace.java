@@ -0,0 +1,101 @@
+package ch.ethz.geco.gecko.state;
+
+import ch.ethz.geco.gecko.ErrorHandler;
+
+import java.io.*;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A typed map in the {@link StateStore}, keyed by Discord IDs. Reads are served from memory, every change is
+ * appended to the log of the store before it returns.
+ *
+ * @param <V> the type of the values
+ */
+public class Namespace<V> {
+    private final String name;
+    private final Codec<V> codec;
+    private final Map<Long, V> values = new ConcurrentHashMap<>();
+
+    Namespace(String name, Codec<V> codec, Map<Long, byte[]> stored) {
+        this.name = name;
+        this.codec = codec;
+
+        stored.forEach((key, bytes) -> {
+            try {
+                values.put(key, codec.read(new DataInputStream(new ByteArrayInputStream(bytes))));
+            } catch (IOException e) {
+                ErrorHandler.handleError(e);
+            }
+        });
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public V get(long key) {
+        return values.get(key);
+    }
+
+    public boolean contains(long key) {
+        return values.containsKey(key);
+    }
+
+    public int size() {
+        return values.size();
+    }
+
+    /**
+     * Returns a copy of all entries.
+     *
+     * @return the entries of this namespace
+     */
+    public Map<Long, V> entries() {
+        return Collections.unmodifiableMap(new HashMap<>(values));
+    }
+
+    /**
+     * Stores a value, replacing the previous one.
+     *
+     * @param key   the key of the value
+     * @param value the value to store
+     */
+    public synchronized void put(long key, V value) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try {
+            codec.write(new DataOutputStream(bytes), value);
+        } catch (IOException e) {
+            ErrorHandler.handleError(e);
+            return;
+        }
+
+        values.put(key, value);
+        StateStore.put(name, key, bytes.toByteArray());
+    }
+
+    /**
+     * Removes a value.
+     *
+     * @param key the key of the value
+     * @return the removed value or null if there was none
+     */
+    public synchronized V remove(long key) {
+        V previous = values.remove(key);
+        if (previous != null)
+            StateStore.remove(name, key);
+
+        return previous;
+    }
+
+    /**
+     * Removes all values.
+     */
+    public void clear() {
+        for (Long key : values.keySet()) {
+            remove(key);
+        }
+    }
+}
@@ -0,0 +1,473 @@
+package ch.ethz.geco.gecko.state;
+
+import ch.ethz.geco.gecko.ErrorHandler;
+import ch.ethz.geco.gecko.GECko;
+import ch.ethz.geco.gecko.Metrics;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.CRC32;
+
+/**
+ * Durable state of the bot subsystems, like the voice channel spawners or the open tickets. The state is split
+ * into typed {@link Namespace}s, each mapping Discord IDs to values.
+ * <p>
+ * Every change is appended to {@code data/state/state.log}. The appends are written and synced to disk by a
+ * background thread in batches, so a change costs the caller no I/O and one sync covers all changes of the
+ * last few milliseconds. Once the log grows well beyond the size of the
+ * live state, it is compacted: the whole state is written to {@code data/state/state.snap} and the log starts
+ * over. On startup the snapshot is loaded and the log replayed on top of it, a torn record at the end of the
+ * log, left by a crash, is cut off.
+ * <p>
+ * Both files start with a header holding the generation of the log, which is increased by every compaction, and
+ * share the same record format: the length of the payload, its CRC32 and the payload itself, which is the
+ * operation, the namespace, the key and for puts the encoded value. A log older than the snapshot is left over
+ * from a compaction which crashed before truncating it and is not replayed.
+ */
+public class StateStore {
+    private static final Path directory = Paths.get("data", "state");
+    private static final Path logFile = directory.resolve("state.log");
+    private static final Path snapshotFile = directory.resolve("state.snap");
+
+    /**
+     * Marks the header of the files, files written before the header was introduced are of generation 0.
+     */
+    private static final int HEADER_MAGIC = 0x47535431;
+    private static final int HEADER_BYTES = 12;
+
+    private static final byte OP_PUT = 1;
+    private static final byte OP_REMOVE = 2;
+
+    /**
+     * The log is never compacted below this size.
+     */
+    private static final long COMPACT_MIN_BYTES = 1024 * 1024;
+
+    /**
+     * How many times bigger than the live state the log may grow before it is compacted.
+     */
+    private static final int COMPACT_RATIO = 4;
+
+    /**
+     * How long the writer collects records before writing and syncing them as one batch.
+     */
+    private static final long SYNC_INTERVAL_MILLIS = 20;
+
+    /**
+     * The raw state of all namespaces, as it is on disk.
+     */
+    private static final Map<String, Map<Long, byte[]>> state = new HashMap<>();
+
+    private static final Map<String, Namespace<?>> namespaces = new ConcurrentHashMap<>();
+
+    private static FileChannel log;
+    private static long logBytes = 0;
+    private static long liveBytes = 0;
+
+    private static ExecutorService compactor;
+    private static boolean compacting = false;
+
+    /**
+     * Records which were appended but not written yet. Guarded by the class lock.
+     */
+    private static List<ByteBuffer> pending = new ArrayList<>();
+
+    /**
+     * Guards the log file between the writer and the compaction.
+     */
+    private static final Object writeLock = new Object();
+
+    /**
+     * The generation of the log, counting how often it was truncated by a compaction. Only changed while holding
+     * both the class lock and the write lock.
+     */
+    private static long generation = 0;
+
+    private static Thread writer;
+    private static volatile boolean writing = false;
+
+    /**
+     * Loads the state and opens the log for appending. This should be called once on startup, before any subsystem
+     * requests its namespace.
+     */
+    public static synchronized void open() {
+        if (log != null)
+            return;
+
+        long start = System.nanoTime();
+        try {
+            Files.createDirectories(directory);
+
+            long snapshotGeneration = 0;
+            if (Files.exists(snapshotFile)) {
+                try (FileChannel snapshot = FileChannel.open(snapshotFile, StandardOpenOption.READ)) {
+                    long header = readGeneration(snapshot);
+                    snapshotGeneration = Math.max(header, 0);
+                    replay(snapshot, header < 0 ? 0 : HEADER_BYTES);
+                }
+            }
+
+            log = FileChannel.open(logFile, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            long header = log.size() < HEADER_BYTES ? snapshotGeneration : readGeneration(log);
+            long valid;
+            if (log.size() < HEADER_BYTES || Math.max(header, 0) < snapshotGeneration) {
+                if (log.size() >= HEADER_BYTES)
+                    GECko.logger.warn("[StateStore] Discarded a log of generation " + Math.max(header, 0) + ", the snapshot is of generation " + snapshotGeneration + ".");
+
+                // Empty, cut off within the header or already contained in the snapshot
+                resetLog(snapshotGeneration);
+                generation = snapshotGeneration;
+                valid = HEADER_BYTES;
+            } else {
+                generation = Math.max(header, 0);
+                valid = replay(log, header < 0 ? 0 : HEADER_BYTES);
+                if (valid < log.size()) {
+                    GECko.logger.warn("[StateStore] Cut off " + (log.size() - valid) + " bytes of a torn record at the end of the log.");
+                    log.truncate(valid);
+                }
+            }
+
+            log.position(valid);
+            logBytes = valid;
+        } catch (IOException e) {
+            ErrorHandler.handleError(e);
+            return;
+        }
+
+        compactor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "StateCompactor");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        writing = true;
+        writer = new Thread(StateStore::write, "StateWriter");
+        writer.setDaemon(true);
+        writer.start();
+
+        Metrics.registerGauge("state.log_bytes", () -> logBytes);
+        Metrics.registerGauge("state.live_bytes", () -> liveBytes);
+
+        int entries = state.values().stream().mapToInt(Map::size).sum();
+        GECko.logger.info("[StateStore] Recovered " + entries + " entries in " + (System.nanoTime() - start) / 1000000 + "ms.");
+    }
+
+    /**
+     * Returns the namespace with the given name, loading its values with the given codec on first use.
+     *
+     * @param name  the name of the namespace
+     * @param codec the codec of the values
+     * @param <V>   the type of the values
+     * @return the namespace
+     */
+    @SuppressWarnings("unchecked")
+    public static synchronized <V> Namespace<V> namespace(String name, Codec<V> codec) {
+        return (Namespace<V>) namespaces.computeIfAbsent(name, key -> new Namespace<>(name, codec, state.getOrDefault(name, new HashMap<>())));
+    }
+
+    static synchronized void put(String namespace, long key, byte[] value) {
+        byte[] previous = state.computeIfAbsent(namespace, name -> new HashMap<>()).put(key, value);
+        liveBytes += value.length - (previous != null ? previous.length : 0);
+        append(OP_PUT, namespace, key, value);
+    }
+
+    static synchronized void remove(String namespace, long key) {
+        Map<Long, byte[]> values = state.get(namespace);
+        byte[] previous = values != null ? values.remove(key) : null;
+        if (previous != null)
+            liveBytes -= previous.length;
+
+        append(OP_REMOVE, namespace, key, null);
+    }
+
+    /**
+     * Queues a record for the writer and starts a compaction if the log got too big.
+     */
+    private static void append(byte op, String namespace, long key, byte[] value) {
+        if (log == null)
+            return;
+
+        try {
+            ByteBuffer record = encode(op, namespace, key, value);
+            logBytes += record.remaining();
+            pending.add(record);
+        } catch (IOException e) {
+            ErrorHandler.handleError(e);
+            return;
+        }
+
+        if (!compacting && logBytes > Math.max(COMPACT_MIN_BYTES, liveBytes * COMPACT_RATIO)) {
+            compacting = true;
+            compactor.execute(StateStore::compact);
+        }
+    }
+
+    /**
+     * Writes the queued records to the log and syncs it, until the store is closed.
+     */
+    private static void write() {
+        // Not stopped by interrupting, that would close the file channel in the middle of a write
+        while (writing) {
+            try {
+                Thread.sleep(SYNC_INTERVAL_MILLIS);
+            } catch (InterruptedException e) {
+                return;
+            }
+
+            flush();
+        }
+    }
+
+    /**
+     * Writes and syncs all queued records as one batch.
+     */
+    private static void flush() {
+        List<ByteBuffer> batch;
+        FileChannel channel;
+        long batchGeneration;
+        synchronized (StateStore.class) {
+            if (pending.isEmpty() || log == null)
+                return;
+
+            batch = pending;
+            pending = new ArrayList<>();
+            channel = log;
+            batchGeneration = generation;
+        }
+
+        synchronized (writeLock) {
+            // A compaction ran since the batch was taken, its records are in the snapshot. Writing them to the
+            // truncated log would replay them on top of later changes.
+            if (generation != batchGeneration)
+                return;
+
+            try {
+                ByteBuffer[] buffers = batch.toArray(new ByteBuffer[0]);
+                while (buffers[buffers.length - 1].hasRemaining()) {
+                    channel.write(buffers);
+                }
+
+                channel.force(false);
+            } catch (IOException e) {
+                ErrorHandler.handleError(e);
+                return;
+            }
+        }
+
+        Metrics.increment("state.syncs");
+        Metrics.add("state.synced_records", batch.size());
+    }
+
+    /**
+     * Writes the whole state to a new snapshot of the next generation and empties the log. The snapshot is written
+     * to a temporary file first and renamed once it is complete. A crash between the rename and the truncation
+     * leaves a log of the previous generation behind, which is skipped on the next start since all of its records
+     * are in the snapshot.
+     */
+    private static synchronized void compact() {
+        compacting = false;
+        if (log == null)
+            return;
+
+        long start = System.nanoTime();
+        Path temp = snapshotFile.resolveSibling(snapshotFile.getFileName() + ".tmp");
+        try {
+            // The writer must not append a batch taken before the snapshot once the log was truncated
+            synchronized (writeLock) {
+                try (FileChannel snapshot = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                    writeFully(snapshot, header(generation + 1));
+                    for (Map.Entry<String, Map<Long, byte[]>> namespace : state.entrySet()) {
+                        for (Map.Entry<Long, byte[]> entry : namespace.getValue().entrySet()) {
+                            writeFully(snapshot, encode(OP_PUT, namespace.getKey(), entry.getKey(), entry.getValue()));
+                        }
+                    }
+
+                    snapshot.force(true);
+                }
+
+                Files.move(temp, snapshotFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+
+                // Everything queued or taken by the writer so far is in the snapshot
+                pending.clear();
+                generation++;
+                resetLog(generation);
+            }
+            logBytes = HEADER_BYTES;
+
+            Metrics.increment("state.compactions");
+            GECko.logger.debug("[StateStore] Compacted the log in " + (System.nanoTime() - start) / 1000000 + "ms.");
+        } catch (IOException e) {
+            ErrorHandler.handleError(e);
+        }
+    }
+
+    /**
+     * Empties the log and starts it over with the header of the given generation.
+     */
+    private static void resetLog(long logGeneration) throws IOException {
+        log.truncate(0);
+        log.position(0);
+        writeFully(log, header(logGeneration));
+        log.force(true);
+    }
+
+    /**
+     * Reads the generation from the header of the given file.
+     *
+     * @return the generation, or -1 if the file was written without a header
+     */
+    private static long readGeneration(FileChannel channel) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_BYTES);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, buffer.position()) < 0)
+                return -1;
+        }
+        buffer.flip();
+
+        if (buffer.getInt() != HEADER_MAGIC)
+            return -1;
+
+        return buffer.getLong();
+    }
+
+    private static ByteBuffer header(long logGeneration) {
+        return ByteBuffer.allocate(HEADER_BYTES).putInt(HEADER_MAGIC).putLong(logGeneration).flip();
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    /**
+     * Reads all records of the given file, starting at the given position, into the state.
+     *
+     * @return the position after the last valid record
+     */
+    private static long replay(FileChannel channel, long offset) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate((int) (channel.size() - offset));
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, offset + buffer.position()) < 0)
+                break;
+        }
+        buffer.flip();
+
+        CRC32 crc = new CRC32();
+        while (buffer.remaining() >= 8) {
+            int start = buffer.position();
+            int length = buffer.getInt();
+            int checksum = buffer.getInt();
+            if (length < 0 || length > buffer.remaining()) {
+                buffer.position(start);
+                break;
+            }
+
+            byte[] payload = new byte[length];
+            buffer.get(payload);
+            crc.reset();
+            crc.update(payload);
+            if ((int) crc.getValue() != checksum) {
+                buffer.position(start);
+                break;
+            }
+
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+            byte op = in.readByte();
+            String namespace = in.readUTF();
+            long key = in.readLong();
+
+            Map<Long, byte[]> values = state.computeIfAbsent(namespace, name -> new HashMap<>());
+            byte[] previous;
+            if (op == OP_PUT) {
+                byte[] value = in.readAllBytes();
+                previous = values.put(key, value);
+                liveBytes += value.length;
+            } else {
+                previous = values.remove(key);
+            }
+
+            if (previous != null)
+                liveBytes -= previous.length;
+        }
+
+        return offset + buffer.position();
+    }
+
+    private static ByteBuffer encode(byte op, String namespace, long key, byte[] value) throws IOException {
+        ByteArrayOutputStream payload = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(payload);
+        out.writeByte(op);
+        out.writeUTF(namespace);
+        out.writeLong(key);
+        if (value != null)
+            out.write(value);
+
+        byte[] bytes = payload.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+
+        ByteBuffer record = ByteBuffer.allocate(8 + bytes.length);
+        record.putInt(bytes.length);
+        record.putInt((int) crc.getValue());
+        record.put(bytes);
+        return record.flip();
+    }
+
+    /**
+     * Writes the queued records, syncs the log and closes it. Namespaces requested before are no longer backed
+     * by the store.
+     */
+    public static void close() {
+        Thread stopped;
+        synchronized (StateStore.class) {
+            if (log == null)
+                return;
+
+            stopped = writer;
+            writer = null;
+            writing = false;
+        }
+
+        try {
+            stopped.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        flush();
+        closeLog();
+    }
+
+    private static synchronized void closeLog() {
+        compactor.shutdown();
+        try {
+            log.force(true);
+            log.close();
+        } catch (IOException e) {
+            ErrorHandler.handleError(e);
+        }
+
+        // Everything is loaded again by the next open
+        log = null;
+        pending = new ArrayList<>();
+        state.clear();
+        namespaces.clear();
+        logBytes = 0;
+        liveBytes = 0;
+        generation = 0;
+    }
+}
@@ -0,0 +1,124 @@
+package ch.ethz.geco.gecko.ticket;
+
+import ch.ethz.geco.gecko.ErrorHandler;
+import ch.ethz.geco.gecko.Shutdown;
+
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs tasks one after another per key, in the order they were submitted, while tasks of different keys run in
+ * parallel on a pool with one thread per core. The tickets use the private channel as key, so all events of one
+ * conversation are handled strictly in order and never at the same time.
+ * <p>
+ * A key only takes up memory while it has tasks queued. Queued tasks count as running work for the
+ * {@link Shutdown}, so they are handled before the bot exits.
+ */
+class SerialExecutor {
+    private final ExecutorService pool;
+
+    /**
+     * The queue of each key which has tasks queued or running.
+     */
+    private final Map<Long, Queue<Runnable>> queues = new ConcurrentHashMap<>();
+
+    SerialExecutor(String name) {
+        AtomicInteger threads = new AtomicInteger();
+        pool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), runnable -> {
+            Thread thread = new Thread(runnable, name + "-" + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Queues a task behind the other tasks of the given key.
+     *
+     * @param key  the key to serialize on
+     * @param task the task to run
+     */
+    void execute(long key, Runnable task) {
+        Shutdown.begin();
+
+        boolean[] first = new boolean[1];
+        queues.compute(key, (k, queue) -> {
+            if (queue == null) {
+                queue = new ArrayDeque<>();
+                first[0] = true;
+            }
+
+            queue.add(task);
+            return queue;
+        });
+
+        // Only the first task starts a worker, the later ones are picked up by it
+        if (first[0]) {
+            try {
+                pool.execute(() -> drain(key));
+            } catch (RejectedExecutionException e) {
+                // Shut down, the state of the conversation is restored from the state store on the next start
+                queues.remove(key).forEach(dropped -> Shutdown.end());
+            }
+        }
+    }
+
+    private void drain(long key) {
+        while (true) {
+            Runnable[] next = new Runnable[1];
+            queues.computeIfPresent(key, (k, queue) -> {
+                next[0] = queue.peek();
+                return queue;
+            });
+
+            try {
+                next[0].run();
+            } catch (Exception e) {
+                ErrorHandler.handleError(e);
+            } finally {
+                Shutdown.end();
+            }
+
+            // The queue is only removed once it is empty, so a task submitted meanwhile is not lost
+            boolean[] done = new boolean[1];
+            queues.computeIfPresent(key, (k, queue) -> {
+                queue.poll();
+                done[0] = queue.isEmpty();
+                return done[0] ? null : queue;
+            });
+
+            if (done[0])
+                return;
+        }
+    }
+
+    /**
+     * Returns how many keys have tasks queued or running.
+     *
+     * @return the number of busy keys
+     */
+    int getActiveKeys() {
+        return queues.size();
+    }
+
+    /**
+     * Stops after the queued tasks ran, waiting for them at most the given time.
+     *
+     * @param timeout how long to wait at most
+     * @param unit    the unit of the timeout
+     */
+    void shutdown(long timeout, TimeUnit unit) {
+        pool.shutdown();
+        try {
+            pool.awaitTermination(timeout, unit);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package ch.ethz.geco.gecko.ticket;
+
+import ch.ethz.geco.gecko.state.Codec;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A ticket which is still being filled in, stored by the ID of its private channel so it survives a restart.
+ */
+public class StoredTicket {
+    public static final Codec<StoredTicket> CODEC = new Codec<>() {
+        @Override
+        public void write(DataOutput out, StoredTicket value) throws IOException {
+            out.writeUTF(value.type);
+            out.writeLong(value.issuerId);
+            out.writeLong(value.created);
+            out.writeInt(value.answers.size());
+            for (String answer : value.answers) {
+                out.writeUTF(answer);
+            }
+        }
+
+        @Override
+        public StoredTicket read(DataInput in) throws IOException {
+            String type = in.readUTF();
+            long issuerId = in.readLong();
+            long created = in.readLong();
+
+            int count = in.readInt();
+            List<String> answers = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                answers.add(in.readUTF());
+            }
+
+            return new StoredTicket(type, issuerId, created, answers);
+        }
+    };
+
+    private final String type;
+    private final long issuerId;
+    private final long created;
+    private final List<String> answers;
+
+    private StoredTicket(String type, long issuerId, long created, List<String> answers) {
+        this.type = type;
+        this.issuerId = issuerId;
+        this.created = created;
+        this.answers = answers;
+    }
+
+    /**
+     * Captures the current answers of a ticket.
+     *
+     * @param ticket  the ticket to store
+     * @param created when the ticket was started
+     * @return the stored ticket
+     */
+    public static StoredTicket of(Ticket ticket, long created) {
+        return new StoredTicket(ticket.getName(), ticket.getIssuer().asLong(), created, List.copyOf(ticket.getAnswers()));
+    }
+
+    /**
+     * Returns the name of the ticket type.
+     *
+     * @return the ticket type name
+     */
+    public String getType() {
+        return type;
+    }
+
+    public long getIssuerId() {
+        return issuerId;
+    }
+
+    public long getCreated() {
+        return created;
+    }
+
+    public List<String> getAnswers() {
+        return answers;
+    }
+}
@@ -0,0 +1,180 @@
+package ch.ethz.geco.gecko.ticket;
+
+import ch.ethz.geco.gecko.state.Codec;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A ticket which was submitted to the staff, stored by its number in the {@link TicketRepository}. It is
+ * immutable, claiming or closing a ticket replaces it with an updated copy.
+ */
+public class SubmittedTicket {
+    public static final Codec<SubmittedTicket> CODEC = new Codec<>() {
+        @Override
+        public void write(DataOutput out, SubmittedTicket value) throws IOException {
+            out.writeLong(value.id);
+            out.writeUTF(value.type);
+            out.writeLong(value.issuerId);
+            out.writeLong(value.assigneeId);
+            out.writeUTF(value.state.name());
+            out.writeLong(value.submitted);
+            out.writeLong(value.claimed);
+            out.writeLong(value.closed);
+            out.writeLong(value.channelId);
+            out.writeLong(value.messageId);
+            writeList(out, value.questions);
+            writeList(out, value.answers);
+        }
+
+        @Override
+        public SubmittedTicket read(DataInput in) throws IOException {
+            return new SubmittedTicket(in.readLong(), in.readUTF(), in.readLong(), in.readLong(), Ticket.State.valueOf(in.readUTF()),
+                    in.readLong(), in.readLong(), in.readLong(), in.readLong(), in.readLong(), readList(in), readList(in));
+        }
+
+        private void writeList(DataOutput out, List<String> list) throws IOException {
+            out.writeInt(list.size());
+            for (String entry : list) {
+                out.writeUTF(entry);
+            }
+        }
+
+        private List<String> readList(DataInput in) throws IOException {
+            int count = in.readInt();
+            List<String> list = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                list.add(in.readUTF());
+            }
+
+            return List.copyOf(list);
+        }
+    };
+
+    private final long id;
+    private final String type;
+    private final long issuerId;
+    private final long assigneeId;
+    private final Ticket.State state;
+    private final long submitted;
+    private final long claimed;
+    private final long closed;
+    private final long channelId;
+    private final long messageId;
+    private final List<String> questions;
+    private final List<String> answers;
+
+    private SubmittedTicket(long id, String type, long issuerId, long assigneeId, Ticket.State state, long submitted, long claimed,
+                            long closed, long channelId, long messageId, List<String> questions, List<String> answers) {
+        this.id = id;
+        this.type = type;
+        this.issuerId = issuerId;
+        this.assigneeId = assigneeId;
+        this.state = state;
+        this.submitted = submitted;
+        this.claimed = claimed;
+        this.closed = closed;
+        this.channelId = channelId;
+        this.messageId = messageId;
+        this.questions = questions;
+        this.answers = answers;
+    }
+
+    /**
+     * Captures a ticket which was just submitted.
+     *
+     * @param id     the number of the ticket
+     * @param ticket the submitted ticket
+     * @return the submitted ticket
+     */
+    static SubmittedTicket of(long id, Ticket ticket) {
+        return new SubmittedTicket(id, ticket.getName(), ticket.getIssuer().asLong(), 0, Ticket.State.OPEN, System.currentTimeMillis(),
+                0, 0, 0, 0, List.copyOf(ticket.getQuestions()), List.copyOf(ticket.getAnswers()));
+    }
+
+    SubmittedTicket withMessage(long channelId, long messageId) {
+        return new SubmittedTicket(id, type, issuerId, assigneeId, state, submitted, claimed, closed, channelId, messageId, questions, answers);
+    }
+
+    SubmittedTicket withAssignee(long assigneeId) {
+        return new SubmittedTicket(id, type, issuerId, assigneeId, state, submitted, System.currentTimeMillis(), closed, channelId, messageId, questions, answers);
+    }
+
+    SubmittedTicket withClosed(long closedBy) {
+        // Whoever closes an unclaimed ticket handled it
+        long assignee = assigneeId != 0 ? assigneeId : closedBy;
+        long claimedAt = claimed != 0 ? claimed : System.currentTimeMillis();
+        return new SubmittedTicket(id, type, issuerId, assignee, Ticket.State.CLOSED, submitted, claimedAt, System.currentTimeMillis(), channelId, messageId, questions, answers);
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    /**
+     * Returns the name of the ticket type.
+     *
+     * @return the ticket type name
+     */
+    public String getType() {
+        return type;
+    }
+
+    public long getIssuerId() {
+        return issuerId;
+    }
+
+    /**
+     * Returns the staff member handling the ticket.
+     *
+     * @return the user ID or 0 if the ticket is not claimed
+     */
+    public long getAssigneeId() {
+        return assigneeId;
+    }
+
+    /**
+     * Returns the state of the ticket, {@link Ticket.State#OPEN} or {@link Ticket.State#CLOSED}.
+     *
+     * @return the state
+     */
+    public Ticket.State getState() {
+        return state;
+    }
+
+    public long getSubmitted() {
+        return submitted;
+    }
+
+    public long getClaimed() {
+        return claimed;
+    }
+
+    public long getClosed() {
+        return closed;
+    }
+
+    /**
+     * Returns the channel of the message which announced the ticket to the staff.
+     *
+     * @return the channel ID or 0 if it was not posted
+     */
+    public long getChannelId() {
+        return channelId;
+    }
+
+    public long getMessageId() {
+        return messageId;
+    }
+
+    public List<String> getQuestions() {
+        return questions;
+    }
+
+    public List<String> getAnswers() {
+        return answers;
+    }
+}
@@ -4,7 +4,15 @@ import discord4j.common.util.Snowflake;
 
 import java.util.List;
 
+/**
+ * A ticket of a user. It starts in {@link State#INIT} while the questions are answered, is {@link State#OPEN}
+ * once it was submitted to the staff and {@link State#CLOSED} when it was cancelled, expired or resolved.
+ * <p>
+ * Tickets are not thread safe, the {@link TicketManager} handles all events of a conversation in order.
+ */
 public interface Ticket {
+    TicketType getType();
+
     String getName();
 
     String getDescription();
@@ -13,11 +21,38 @@ public interface Ticket {
 
     List<String> getQuestions();
 
+    /**
+     * Returns the answers given so far.
+     *
+     * @return an unmodifiable view of the answers
+     */
     List<String> getAnswers();
 
+    /**
+     * Records the answer to the current question.
+     *
+     * @param answer the answer
+     * @throws IllegalStateException if the ticket is not in {@link State#INIT} or all questions are answered
+     */
+    void addAnswer(String answer);
+
     String nextQuestion();
 
     String getEmoji();
 
+    State getState();
+
+    /**
+     * Submits the ticket once all questions are answered.
+     *
+     * @throws IllegalStateException if the ticket is not in {@link State#INIT} or questions are left
+     */
+    void open();
+
+    /**
+     * Closes the ticket. Closing a closed ticket does nothing.
+     */
+    void close();
+
     enum State {INIT, OPEN, CLOSED}
 }
@@ -0,0 +1,250 @@
+package ch.ethz.geco.gecko.ticket;
+
+import ch.ethz.geco.gecko.ConfigManager;
+import ch.ethz.geco.gecko.ConfigSnapshot;
+import ch.ethz.geco.gecko.ErrorHandler;
+import ch.ethz.geco.gecko.GECko;
+import ch.ethz.geco.gecko.Metrics;
+import ch.ethz.geco.gecko.Shutdown;
+import ch.ethz.geco.gecko.command.CommandHandler;
+import ch.ethz.geco.gecko.timer.Timeout;
+import ch.ethz.geco.gecko.timer.Timers;
+import discord4j.common.util.Snowflake;
+import discord4j.core.object.entity.channel.MessageChannel;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static ch.ethz.geco.gecko.GECko.discordClient;
+
+/**
+ * Posts submitted tickets to the ticket channel. Usually every ticket gets its own message, but when more than
+ * {@link ConfigSnapshot#getTicketDigestThreshold()} tickets are submitted within a minute, like at the start of a
+ * LAN, they are collected and posted as one digest per {@link ConfigSnapshot#getTicketDigestInterval()} instead,
+ * so the channel does not run into the rate limit. Once the rate drops again, tickets are posted right away.
+ */
+class TicketAnnouncer {
+    private static final long RATE_WINDOW_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+    /**
+     * How many tickets are listed in one digest message.
+     */
+    private static final int DIGEST_SIZE = 10;
+
+    /**
+     * How much of the first answer is shown in a digest.
+     */
+    private static final int EXCERPT_LENGTH = 150;
+
+    private static final Object lock = new Object();
+
+    /**
+     * The submission times within the last minute.
+     */
+    private static final Deque<Long> submissions = new ArrayDeque<>();
+
+    /**
+     * The tickets waiting for the next digest.
+     */
+    private static final List<SubmittedTicket> pending = new ArrayList<>();
+
+    private static boolean digesting = false;
+    private static Timeout nextDigest;
+
+    static {
+        Metrics.registerGauge("tickets.digest_mode", () -> {
+            synchronized (lock) {
+                return digesting ? 1 : 0;
+            }
+        });
+        Metrics.registerGauge("tickets.digest_pending", () -> {
+            synchronized (lock) {
+                return pending.size();
+            }
+        });
+    }
+
+    /**
+     * Posts a submitted ticket, either right away or with the next digest.
+     *
+     * @param ticket the ticket
+     */
+    static void announce(SubmittedTicket ticket) {
+        ConfigSnapshot config = ConfigManager.get();
+        synchronized (lock) {
+            long now = System.currentTimeMillis();
+            submissions.addLast(now);
+            int rate = countRecent(now);
+
+            if (!digesting && config.getTicketDigestThreshold() > 0 && rate > config.getTicketDigestThreshold()) {
+                digesting = true;
+                Metrics.increment("tickets.digest_switches");
+                GECko.logger.info("[TicketAnnouncer] " + rate + " tickets within a minute, switching to digests.");
+                nextDigest = Timers.schedule(TicketAnnouncer::digest, config.getTicketDigestInterval().toMillis(), TimeUnit.MILLISECONDS);
+            }
+
+            if (digesting) {
+                pending.add(ticket);
+                return;
+            }
+        }
+
+        post(ticket);
+    }
+
+    /**
+     * Updates the message of a ticket after it was claimed or closed. Tickets which were posted in a digest have no
+     * message of their own.
+     *
+     * @param ticket the updated ticket
+     */
+    static void update(SubmittedTicket ticket) {
+        if (ticket.getMessageId() == 0)
+            return;
+
+        Shutdown.track(discordClient.getMessageById(Snowflake.of(ticket.getChannelId()), Snowflake.of(ticket.getMessageId()))
+                .flatMap(message -> message.edit(spec -> spec.setContent(getStatusLine(ticket))))).subscribe(null, ErrorHandler::handleError);
+    }
+
+    /**
+     * Posts the pending tickets and waits until they are sent, such that a shutdown does not drop them. They can
+     * still be found with the tickets command if this fails.
+     */
+    static void close() {
+        List<SubmittedTicket> batch;
+        synchronized (lock) {
+            if (nextDigest != null)
+                nextDigest.cancel();
+
+            batch = new ArrayList<>(pending);
+            pending.clear();
+            submissions.clear();
+            digesting = false;
+            nextDigest = null;
+        }
+
+        try {
+            postDigests(batch).block(ConfigManager.get().getDrainTimeout());
+        } catch (RuntimeException e) {
+            ErrorHandler.handleError(e);
+        }
+    }
+
+    /**
+     * Posts the pending tickets as a digest and switches back to single messages if the rate dropped.
+     */
+    private static void digest() {
+        ConfigSnapshot config = ConfigManager.get();
+        List<SubmittedTicket> batch;
+        synchronized (lock) {
+            if (!digesting)
+                return;
+
+            batch = new ArrayList<>(pending);
+            pending.clear();
+
+            int rate = countRecent(System.currentTimeMillis());
+            if (rate > config.getTicketDigestThreshold()) {
+                nextDigest = Timers.schedule(TicketAnnouncer::digest, config.getTicketDigestInterval().toMillis(), TimeUnit.MILLISECONDS);
+            } else {
+                digesting = false;
+                nextDigest = null;
+                Metrics.increment("tickets.digest_switches");
+                GECko.logger.info("[TicketAnnouncer] " + rate + " tickets within a minute, posting them right away again.");
+            }
+        }
+
+        Shutdown.track(postDigests(batch)).subscribe(null, ErrorHandler::handleError);
+    }
+
+    /**
+     * Drops the submissions older than a minute and returns how many are left. Requires the lock.
+     */
+    private static int countRecent(long now) {
+        while (!submissions.isEmpty() && submissions.peekFirst() <= now - RATE_WINDOW_MILLIS) {
+            submissions.removeFirst();
+        }
+
+        return submissions.size();
+    }
+
+    /**
+     * Posts a ticket with all its answers and remembers the message, such that it can be updated when the ticket
+     * is claimed or closed.
+     */
+    private static void post(SubmittedTicket ticket) {
+        Shutdown.track(getTicketChannel().flatMap(channel -> channel.createMessage(spec -> {
+            spec.setContent(getStatusLine(ticket));
+            spec.setEmbed(embedSpec -> {
+                embedSpec.setTitle("**#" + ticket.getId() + " " + ticket.getType() + "**");
+
+                StringBuilder content = new StringBuilder();
+                for (int i = 0; i < ticket.getQuestions().size(); i++) {
+                    content.append("\n\n__");
+                    content.append(ticket.getQuestions().get(i));
+                    content.append("__\n");
+                    content.append(ticket.getAnswers().get(i));
+                }
+                embedSpec.setDescription(content.toString());
+                embedSpec.setFooter("Write: " + CommandHandler.getDefaultPrefix() + "tickets claim " + ticket.getId() + " to take care of this ticket.", null);
+            });
+        }))).subscribe(message -> TicketRepository.setMessage(ticket.getId(), message.getChannelId().asLong(), message.getId().asLong()),
+                ErrorHandler::handleError);
+    }
+
+    /**
+     * Posts the given tickets as digests, one message per {@link #DIGEST_SIZE} tickets.
+     */
+    private static Mono<Void> postDigests(List<SubmittedTicket> batch) {
+        if (batch.isEmpty())
+            return Mono.empty();
+
+        Metrics.increment("tickets.digests");
+        Metrics.add("tickets.digested", batch.size());
+
+        List<List<SubmittedTicket>> chunks = new ArrayList<>();
+        for (int i = 0; i < batch.size(); i += DIGEST_SIZE) {
+            chunks.add(batch.subList(i, Math.min(batch.size(), i + DIGEST_SIZE)));
+        }
+
+        String prefix = CommandHandler.getDefaultPrefix();
+        return getTicketChannel().flatMapMany(channel -> Flux.fromIterable(chunks).concatMap(chunk -> channel.createEmbed(spec -> {
+            spec.setTitle("**" + batch.size() + " new tickets**");
+
+            // Mentions in embeds do not notify anyone
+            StringBuilder content = new StringBuilder();
+            for (SubmittedTicket ticket : chunk) {
+                String excerpt = ticket.getAnswers().isEmpty() ? "" : ticket.getAnswers().get(0).replace('\n', ' ');
+                if (excerpt.length() > EXCERPT_LENGTH)
+                    excerpt = excerpt.substring(0, EXCERPT_LENGTH - 1) + "…";
+
+                content.append("**#").append(ticket.getId()).append("** ").append(ticket.getType())
+                        .append(" | <@").append(ticket.getIssuerId()).append(">\n").append(excerpt).append("\n\n");
+            }
+            spec.setDescription(content.toString());
+            spec.setFooter("Write: " + prefix + "tickets show <#> for the whole ticket or " + prefix + "tickets claim <#> to take care of it.", null);
+        }))).then();
+    }
+
+    private static Mono<MessageChannel> getTicketChannel() {
+        return discordClient.getChannelById(Snowflake.of(ConfigManager.get().getTicketChannelId())).cast(MessageChannel.class);
+    }
+
+    /**
+     * Returns who submitted the ticket and who takes care of it.
+     */
+    private static String getStatusLine(SubmittedTicket ticket) {
+        String status = "Issuer: <@" + ticket.getIssuerId() + ">";
+        if (ticket.getState() == Ticket.State.CLOSED)
+            return status + " | Closed, handled by <@" + ticket.getAssigneeId() + ">";
+        if (ticket.getAssigneeId() != 0)
+            return status + " | Claimed by <@" + ticket.getAssigneeId() + ">";
+
+        return status;
+    }
+}
@@ -1,29 +1,40 @@
 package ch.ethz.geco.gecko.ticket;
 
 import ch.ethz.geco.gecko.ConfigManager;
+import ch.ethz.geco.gecko.ConfigSnapshot;
+import ch.ethz.geco.gecko.ErrorHandler;
+import ch.ethz.geco.gecko.GECko;
+import ch.ethz.geco.gecko.Metrics;
+import ch.ethz.geco.gecko.ReactionSeeder;
+import ch.ethz.geco.gecko.Shutdown;
 import ch.ethz.geco.gecko.command.CommandHandler;
 import ch.ethz.geco.gecko.command.CommandRegistry;
+import ch.ethz.geco.gecko.state.Namespace;
+import ch.ethz.geco.gecko.state.StateStore;
+import ch.ethz.geco.gecko.timer.Timeout;
+import ch.ethz.geco.gecko.timer.Timers;
 import ch.ethz.geco.gecko.ticket.command.TicketChannel;
 import ch.ethz.geco.gecko.ticket.command.TicketSpawner;
-import ch.ethz.geco.gecko.ticket.impl.GeneralTicket;
-import ch.ethz.geco.gecko.ticket.impl.ProtectionTicket;
-import ch.ethz.geco.gecko.ticket.impl.ReportTicket;
+import ch.ethz.geco.gecko.ticket.command.Tickets;
 import discord4j.common.util.Snowflake;
 import discord4j.core.event.domain.message.MessageCreateEvent;
 import discord4j.core.event.domain.message.ReactionAddEvent;
+import discord4j.core.object.entity.Message;
 import discord4j.core.object.entity.User;
 import discord4j.core.object.entity.channel.MessageChannel;
+import discord4j.core.object.entity.channel.PrivateChannel;
 import discord4j.core.object.entity.channel.TextChannel;
-import discord4j.core.object.reaction.ReactionEmoji;
+import reactor.core.Disposable;
+import reactor.core.Disposables;
 
-import java.lang.reflect.InvocationTargetException;
-import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
+import java.util.ServiceLoader;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
 import static ch.ethz.geco.gecko.GECko.discordClient;
 
@@ -31,79 +42,191 @@ public class TicketManager {
     /**
      * A map of all currently open tickets and the private channel they are in.
      */
-    private static final Map<Snowflake, Ticket> tickets = new HashMap<>();
+    private static final Map<Snowflake, Ticket> tickets = new ConcurrentHashMap<>();
     /**
-     * A list of all available ticket types.
+     * The open tickets as they are stored, so they survive a restart.
      */
-    private static final List<TicketType> ticketTypes = new ArrayList<>();
+    private static Namespace<StoredTicket> storedTickets;
+    /**
+     * A list of all available ticket types, in the order they are shown on the spawner.
+     */
+    private static final List<TicketType> ticketTypes = new CopyOnWriteArrayList<>();
     /**
      * A list of all message IDs containing a ticket spawner.
      */
     private static Snowflake ticketSpawner;
+
     /**
-     * The ticket channel where all opened tickets are posted.
+     * The pending expiry of each open ticket, by its private channel.
      */
-    private static Snowflake ticketChannel;
+    private static final Map<Snowflake, Timeout> expiries = new ConcurrentHashMap<>();
 
     /**
-     * After how many seconds uncreated tickets should expire.
+     * Handles the events of each private channel in order.
      */
-    private static final int TICKET_EXPIRE_SECONDS = 300;
+    private static SerialExecutor conversations;
 
     /**
-     * The thread pool handling ticket expirations.
+     * The event subscriptions of the ticket manager.
      */
-    private static final ScheduledExecutorService executer = Executors.newScheduledThreadPool(2);
+    private static Disposable.Composite subscriptions;
 
     static {
-        List<Class<? extends Ticket>> ticketClasses = new ArrayList<>();
-
-        // Add new ticket types here
-        ticketClasses.add(ProtectionTicket.class);
-        ticketClasses.add(ReportTicket.class);
-        ticketClasses.add(GeneralTicket.class);
+        // The built-in types are listed in META-INF/services as well, so there is no need to add new types here
+        for (TicketType type : ServiceLoader.load(TicketType.class)) {
+            registerType(type);
+        }
+    }
 
-        for (Class<? extends Ticket> clazz : ticketClasses) {
-            try {
-                Ticket tmp = clazz.getConstructor(Snowflake.class).newInstance(Snowflake.of(0));
-                ticketTypes.add(new TicketType(clazz, tmp.getName(), tmp.getDescription(), tmp.getEmoji()));
-            } catch (InstantiationException | IllegalAccessException | InvocationTargetException | NoSuchMethodException e) {
-                e.printStackTrace();
+    /**
+     * Adds a ticket type. It shows up on the ticket spawner the next time it is reset, e.g. after a restart.
+     *
+     * @param type the ticket type to add
+     */
+    public static synchronized void registerType(TicketType type) {
+        for (TicketType existing : ticketTypes) {
+            if (existing.getName().equals(type.getName()) || existing.getEmoji().equals(type.getEmoji())) {
+                GECko.logger.error("[TicketManager] Ticket type <" + type.getName() + "> clashes with type: " + existing.getClass().getSimpleName());
+                return;
             }
         }
+
+        ticketTypes.add(type);
+    }
+
+    /**
+     * Returns all available ticket types, in the order they are shown on the spawner.
+     *
+     * @return the ticket types
+     */
+    public static List<TicketType> getTicketTypes() {
+        return Collections.unmodifiableList(ticketTypes);
     }
 
     /**
      * Initializes the ticket manager, loading configurations and cleaning up.
-     * This should be called once on startup.
+     * This is called on startup and after {@link #close()} when the subsystems are restarted.
      */
     public static void init() {
+        conversations = new SerialExecutor("Tickets");
+        Metrics.registerGauge("tickets.busy_conversations", () -> conversations.getActiveKeys());
+
         // Add ticket commands
         CommandRegistry.registerCommand(new TicketSpawner());
         CommandRegistry.registerCommand(new TicketChannel());
-
-        if (ConfigManager.getProperty("ticket_channel") != null) {
-            ticketChannel = Snowflake.of(ConfigManager.getProperty("ticket_channel"));
+        CommandRegistry.registerCommand(new Tickets());
+
+        storedTickets = StateStore.namespace("tickets", StoredTicket.CODEC);
+        restoreTickets();
+        TicketRepository.open();
+
+        ConfigSnapshot config = ConfigManager.get();
+        if (config.getTicketSpawnerMessageId() != 0 && config.getTicketSpawnerChannelId() != 0) {
+            ticketSpawner = Snowflake.of(config.getTicketSpawnerMessageId());
+            // Fixing the reactions is cosmetic, so the ticket manager does not wait for it
+            ReactionSeeder.reconcile(Snowflake.of(config.getTicketSpawnerChannelId()), ticketSpawner, getEmojis())
+                    .subscribe(null, ErrorHandler::handleError);
         }
 
-        if (ConfigManager.getProperty("ticket_spawnerMessage") != null && ConfigManager.getProperty("ticket_spawnerChannel") != null) {
-            ticketSpawner = Snowflake.of(ConfigManager.getProperty("ticket_spawnerMessage"));
-            discordClient.getMessageById(Snowflake.of(ConfigManager.getProperty("ticket_spawnerChannel")), ticketSpawner).subscribe(message -> {
-                message.removeAllReactions().block();
+        // Listen to ticket related messages
+        subscriptions = Disposables.composite(
+                discordClient.getEventDispatcher().on(MessageCreateEvent.class).subscribe(TicketManager::handleMessage),
+                discordClient.getEventDispatcher().on(ReactionAddEvent.class).subscribe(TicketManager::handleReact));
+    }
 
-                for (TicketType type : ticketTypes) {
-                    message.addReaction(ReactionEmoji.unicode(type.getEmoji())).block();
-                }
-            });
+    /**
+     * Stops listening to events and drops the pending expirations. The open tickets stay in the state store
+     * and are restored by the next {@link #init()}.
+     */
+    public static void close() {
+        if (subscriptions == null)
+            return;
+
+        subscriptions.dispose();
+        expiries.values().forEach(Timeout::cancel);
+        expiries.clear();
+        conversations.shutdown(ConfigManager.get().getDrainTimeout().toMillis(), TimeUnit.MILLISECONDS);
+        tickets.clear();
+        TicketAnnouncer.close();
+        TicketRepository.close();
+        ticketSpawner = null;
+        subscriptions = null;
+    }
+
+    /**
+     * Restores the tickets which were being filled in before the restart and asks their issuers the open question
+     * again, as an answer sent while the bot was down was not received. Tickets which expired in the meantime
+     * expire right away.
+     */
+    private static void restoreTickets() {
+        storedTickets.entries().forEach((channelId, stored) -> {
+            TicketType type = ticketTypes.stream().filter(ticketType -> ticketType.getName().equals(stored.getType())).findFirst().orElse(null);
+            if (type == null) {
+                storedTickets.remove(channelId);
+                return;
+            }
+
+            Ticket ticket = type.create(Snowflake.of(stored.getIssuerId()));
+            try {
+                stored.getAnswers().forEach(ticket::addAnswer);
+            } catch (IllegalStateException e) {
+                // The questions of the type changed since, more answers than questions
+                storedTickets.remove(channelId);
+                return;
+            }
+
+            tickets.put(Snowflake.of(channelId), ticket);
+
+            long remaining = stored.getCreated() + ConfigManager.get().getTicketExpiry().toMillis() - System.currentTimeMillis();
+            scheduleExpiry(Snowflake.of(channelId), ticket, Math.max(0, remaining));
+
+            if (remaining > 0) {
+                Shutdown.track(discordClient.getChannelById(Snowflake.of(channelId)).cast(MessageChannel.class).flatMap(channel -> channel.createEmbed(spec -> {
+                    spec.setTitle("**" + ticket.getName() + "**");
+                    spec.setDescription("I was restarted, but your ticket is still open. If you already answered, please send your answer again.\n\n" +
+                            ticket.nextQuestion());
+                    spec.setFooter("Write: " + CommandHandler.getDefaultPrefix() + "cancel to cancel the ticket creation.", null);
+                }))).subscribe(null, ErrorHandler::handleError);
+            }
+        });
+
+        if (!tickets.isEmpty()) {
+            GECko.logger.info("[TicketManager] Restored " + tickets.size() + " open tickets.");
         }
+    }
 
-        // Listen to ticket related messages
-        discordClient.getEventDispatcher().on(MessageCreateEvent.class).subscribe(TicketManager::handleMessage);
-        discordClient.getEventDispatcher().on(ReactionAddEvent.class).subscribe(TicketManager::handleReact);
+    /**
+     * Expires the given ticket after the given delay if it was not finished by then.
+     *
+     * @param channelId   the private channel of the ticket
+     * @param ticket      the ticket
+     * @param delayMillis the delay in milliseconds
+     */
+    private static void scheduleExpiry(Snowflake channelId, Ticket ticket, long delayMillis) {
+        expiries.put(channelId, Timers.schedule(() -> conversations.execute(channelId.asLong(), () -> {
+            expiries.remove(channelId);
+            if (tickets.remove(channelId, ticket)) {
+                ticket.close();
+                storedTickets.remove(channelId.asLong());
+
+                Shutdown.track(discordClient.getChannelById(channelId).cast(MessageChannel.class).flatMap(channel -> channel.createEmbed(spec -> {
+                    spec.setTitle("**" + ticket.getName() + "**");
+                    spec.setDescription("❎ Your ticket creation has expired.");
+                    spec.setFooter("~ Have Fun!", null);
+                }))).subscribe();
+            }
+        }), delayMillis, TimeUnit.MILLISECONDS));
     }
 
-    public static void setTicketChannel(Snowflake ticketChannel) {
-        TicketManager.ticketChannel = ticketChannel;
+    /**
+     * Cancels the expiry of a ticket which was cancelled or completed.
+     *
+     * @param channelId the private channel of the ticket
+     */
+    private static void cancelExpiry(Snowflake channelId) {
+        Timeout expiry = expiries.remove(channelId);
+        if (expiry != null)
+            expiry.cancel();
     }
 
     public static void createSpawner(TextChannel channel) {
@@ -123,55 +246,33 @@ public class TicketManager {
             spec.setDescription(description.toString());
 
             spec.setFooter("React to this message to choose an option", null);
-        }).subscribe(message -> {
-            for (TicketType type : ticketTypes) {
-                message.addReaction(ReactionEmoji.unicode(type.getEmoji())).block();
-            }
-
+        }).doOnNext(message -> {
+            // Saved before seeding, so the reconcile on the next startup completes a partially seeded spawner
             ticketSpawner = message.getId();
             ConfigManager.setProperty("ticket_spawnerMessage", message.getId().asString());
             ConfigManager.setProperty("ticket_spawnerChannel", message.getChannelId().asString());
             ConfigManager.saveConfig();
-        });
+        }).flatMap(message -> ReactionSeeder.seed(message, getEmojis())).subscribe(null, ErrorHandler::handleError);
+    }
+
+    /**
+     * Returns the emojis of the ticket types in the order they are shown on the spawner.
+     */
+    private static List<String> getEmojis() {
+        return ticketTypes.stream().map(TicketType::getEmoji).collect(Collectors.toList());
     }
 
     public static void handleReact(ReactionAddEvent reactEvent) {
-        if (!reactEvent.getUserId().equals(discordClient.getSelfId()) && ticketSpawner.equals(reactEvent.getMessageId())) {
+        if (Shutdown.isDraining())
+            return;
+
+        if (!reactEvent.getUserId().equals(discordClient.getSelfId()) && reactEvent.getMessageId().equals(ticketSpawner)) {
             if (reactEvent.getEmoji().asUnicodeEmoji().isPresent()) {
                 String reactionEmoji = reactEvent.getEmoji().asUnicodeEmoji().get().getRaw();
 
                 ticketTypes.stream().filter(ticketType -> ticketType.getEmoji().equals(reactionEmoji)).forEach(ticketType -> {
-                    reactEvent.getUser().flatMap(User::getPrivateChannel).subscribe(channel -> {
-                        if (!tickets.containsKey(channel.getId())) {
-                            channel.createEmbed(spec -> {
-                                try {
-                                    Ticket ticket = ticketType.getTypeClass().getConstructor(Snowflake.class).newInstance(reactEvent.getUserId());
-
-                                    spec.setTitle("**" + ticket.getName() + "**");
-                                    spec.setDescription("Before I can create a ticket for you, I need some additional information.\n\n" +
-                                            ticket.nextQuestion());
-                                    spec.setFooter("Write: " + CommandHandler.getDefaultPrefix() + "cancel to cancel the ticket creation.", null);
-
-                                    tickets.put(channel.getId(), ticket);
-
-                                    // Expire uncreated tickets after some timeout
-                                    executer.schedule(() -> {
-                                        if (tickets.containsKey(channel.getId())) {
-                                            tickets.remove(channel.getId());
-
-                                            channel.createEmbed(spec2 -> {
-                                                spec2.setTitle("**" + ticket.getName() + "**");
-                                                spec2.setDescription("❎ Your ticket creation has expired.");
-                                                spec2.setFooter("~ Have Fun!", null);
-                                            }).subscribe();
-                                        }
-                                    }, TICKET_EXPIRE_SECONDS, TimeUnit.SECONDS);
-                                } catch (InstantiationException | IllegalAccessException | InvocationTargetException | NoSuchMethodException e) {
-                                    e.printStackTrace();
-                                }
-                            }).subscribe();
-                        }
-                    });
+                    reactEvent.getUser().flatMap(User::getPrivateChannel).subscribe(channel ->
+                            conversations.execute(channel.getId().asLong(), () -> startTicket(channel, ticketType, reactEvent.getUserId())));
                 });
             }
 
@@ -179,63 +280,107 @@ public class TicketManager {
         }
     }
 
+    /**
+     * Starts a ticket in the given private channel, unless one is being filled in there already.
+     */
+    private static void startTicket(PrivateChannel channel, TicketType type, Snowflake issuer) {
+        if (tickets.containsKey(channel.getId()))
+            return;
+
+        Ticket ticket = type.create(issuer);
+        tickets.put(channel.getId(), ticket);
+        storedTickets.put(channel.getId().asLong(), StoredTicket.of(ticket, System.currentTimeMillis()));
+
+        // Expire uncreated tickets after some timeout
+        scheduleExpiry(channel.getId(), ticket, ConfigManager.get().getTicketExpiry().toMillis());
+
+        Shutdown.track(channel.createEmbed(spec -> {
+            spec.setTitle("**" + ticket.getName() + "**");
+            spec.setDescription("Before I can create a ticket for you, I need some additional information.\n\n" +
+                    ticket.nextQuestion());
+            spec.setFooter("Write: " + CommandHandler.getDefaultPrefix() + "cancel to cancel the ticket creation.", null);
+        })).subscribe();
+    }
+
     public static void handleMessage(MessageCreateEvent messageEvent) {
+        if (Shutdown.isDraining())
+            return;
+
+        // Messages of one conversation are handled in order, a quick second answer must not overtake the first
         if (messageEvent.getMessage().getAuthor().isPresent() &&
                 !messageEvent.getMessage().getAuthor().get().isBot() &&
                 tickets.containsKey(messageEvent.getMessage().getChannelId())) {
-            Ticket ticket = tickets.get(messageEvent.getMessage().getChannelId());
-            if (!messageEvent.getMessage().getContent().isBlank()) {
-                if (messageEvent.getMessage().getContent().strip().equals(CommandHandler.getDefaultPrefix() + "cancel")) {
-                    tickets.remove(messageEvent.getMessage().getChannelId());
-
-                    messageEvent.getMessage().getChannel().flatMap(channel -> channel.createEmbed(spec -> {
-                        spec.setTitle("**" + ticket.getName() + "**");
-                        spec.setDescription("❎ Your ticket was canceled.");
-                        spec.setFooter("~ Have Fun!", null);
-                    })).subscribe();
-
-                    return;
-                }
-
-                ticket.getAnswers().add(messageEvent.getMessage().getContent());
-
-                if (ticket.nextQuestion() != null) {
-                    messageEvent.getMessage().getChannel().flatMap(channel -> channel.createEmbed(spec -> {
-                        spec.setTitle("**" + ticket.getName() + "**");
-                        spec.setDescription(ticket.nextQuestion());
-                        spec.setFooter("Write: " + CommandHandler.getDefaultPrefix() + "cancel to cancel the ticket creation.", null);
-                    })).subscribe();
-                } else {
-                    tickets.remove(messageEvent.getMessage().getChannelId());
-
-                    messageEvent.getMessage().getChannel().flatMap(channel -> channel.createEmbed(spec -> {
-                        spec.setTitle("**" + ticket.getName() + "**");
-                        spec.setDescription("✅ Your ticket was successfully created and the next available admin will process it soon.");
-                        spec.setFooter("~ Have Fun!", null);
-                    })).subscribe();
-
-                    discordClient.getChannelById(ticketChannel).cast(MessageChannel.class).flatMap(channel -> channel.createMessage(spec -> {
-                        spec.setContent("Issuer: <@" + ticket.getIssuer().asLong() + ">");
-                        spec.setEmbed(embedSpec -> {
-                            embedSpec.setTitle("**" + ticket.getName() + "**");
-
-                            StringBuilder content = new StringBuilder();
-                            for (int i = 0; i < ticket.getQuestions().size(); i++) {
-                                content.append("\n\n__");
-                                content.append(ticket.getQuestions().get(i));
-                                content.append("__\n");
-                                content.append(ticket.getAnswers().get(i));
-                            }
-                            embedSpec.setDescription(content.toString());
-                        });
-                    })).subscribe();
-                }
-            } else {
-                messageEvent.getMessage().getChannel().flatMap(channel -> channel.createEmbed(spec -> {
-                    spec.setTitle("**" + ticket.getName() + "**");
-                    spec.setDescription("Please answer this question:\n\n" + ticket.nextQuestion());
-                })).subscribe();
-            }
+            conversations.execute(messageEvent.getMessage().getChannelId().asLong(), () -> handleAnswer(messageEvent.getMessage()));
+        }
+    }
+
+    /**
+     * Handles a message in the private channel of a ticket. Runs in order with the other events of the channel.
+     */
+    private static void handleAnswer(Message message) {
+        Snowflake channelId = message.getChannelId();
+        Ticket ticket = tickets.get(channelId);
+
+        // Expired or finished while the message was queued
+        if (ticket == null || ticket.getState() != Ticket.State.INIT)
+            return;
+
+        if (message.getContent().isBlank()) {
+            Shutdown.track(message.getChannel().flatMap(channel -> channel.createEmbed(spec -> {
+                spec.setTitle("**" + ticket.getName() + "**");
+                spec.setDescription("Please answer this question:\n\n" + ticket.nextQuestion());
+            }))).subscribe();
+            return;
+        }
+
+        if (message.getContent().strip().equals(CommandHandler.getDefaultPrefix() + "cancel")) {
+            tickets.remove(channelId);
+            ticket.close();
+            storedTickets.remove(channelId.asLong());
+            cancelExpiry(channelId);
+
+            Shutdown.track(message.getChannel().flatMap(channel -> channel.createEmbed(spec -> {
+                spec.setTitle("**" + ticket.getName() + "**");
+                spec.setDescription("❎ Your ticket was canceled.");
+                spec.setFooter("~ Have Fun!", null);
+            }))).subscribe();
+            return;
         }
+
+        ticket.addAnswer(message.getContent());
+
+        if (ticket.nextQuestion() != null) {
+            StoredTicket stored = storedTickets.get(channelId.asLong());
+            storedTickets.put(channelId.asLong(), StoredTicket.of(ticket, stored != null ? stored.getCreated() : System.currentTimeMillis()));
+
+            Shutdown.track(message.getChannel().flatMap(channel -> channel.createEmbed(spec -> {
+                spec.setTitle("**" + ticket.getName() + "**");
+                spec.setDescription(ticket.nextQuestion());
+                spec.setFooter("Write: " + CommandHandler.getDefaultPrefix() + "cancel to cancel the ticket creation.", null);
+            }))).subscribe();
+            return;
+        }
+
+        tickets.remove(channelId);
+        ticket.open();
+        storedTickets.remove(channelId.asLong());
+        cancelExpiry(channelId);
+
+        Shutdown.track(message.getChannel().flatMap(channel -> channel.createEmbed(spec -> {
+            spec.setTitle("**" + ticket.getName() + "**");
+            spec.setDescription("✅ Your ticket was successfully created and the next available admin will process it soon.");
+            spec.setFooter("~ Have Fun!", null);
+        }))).subscribe();
+
+        TicketAnnouncer.announce(TicketRepository.submit(ticket));
+    }
+
+    /**
+     * Updates the message of a ticket in the ticket channel after it was claimed or closed.
+     *
+     * @param ticket the updated ticket
+     */
+    public static void updateAnnouncement(SubmittedTicket ticket) {
+        TicketAnnouncer.update(ticket);
     }
 }
@@ -0,0 +1,94 @@
+package ch.ethz.geco.gecko.ticket;
+
+/**
+ * Describes which submitted tickets to look up in the {@link TicketRepository}.
+ */
+public class TicketQuery {
+    /**
+     * Used as assignee to look for tickets nobody claimed yet.
+     */
+    public static final long UNASSIGNED = -1;
+
+    private final Ticket.State state;
+    private final String type;
+    private final long issuerId;
+    private final long assigneeId;
+    private final long submittedBefore;
+    private final String text;
+    private final boolean newestFirst;
+
+    /**
+     * Creates a new query.
+     *
+     * @param state           the state to look for or null for any state
+     * @param type            the ticket type name to look for or null for any type
+     * @param issuerId        the issuer to look for or 0 for any issuer
+     * @param assigneeId      the assignee to look for, {@link #UNASSIGNED} or 0 for any assignee
+     * @param submittedBefore only include tickets submitted before this time in epoch milliseconds, or 0
+     * @param text            the text the answers or the type have to contain or null
+     * @param newestFirst     whether to return the newest tickets first instead of the oldest
+     */
+    public TicketQuery(Ticket.State state, String type, long issuerId, long assigneeId, long submittedBefore, String text, boolean newestFirst) {
+        this.state = state;
+        this.type = type;
+        this.issuerId = issuerId;
+        this.assigneeId = assigneeId;
+        this.submittedBefore = submittedBefore;
+        this.text = text != null ? text.toLowerCase() : null;
+        this.newestFirst = newestFirst;
+    }
+
+    public Ticket.State getState() {
+        return state;
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public long getIssuerId() {
+        return issuerId;
+    }
+
+    public long getAssigneeId() {
+        return assigneeId;
+    }
+
+    public long getSubmittedBefore() {
+        return submittedBefore;
+    }
+
+    public String getText() {
+        return text;
+    }
+
+    public boolean isNewestFirst() {
+        return newestFirst;
+    }
+
+    /**
+     * Checks whether the given ticket matches this query.
+     *
+     * @param ticket the ticket to check
+     * @return whether the ticket matches
+     */
+    boolean matches(SubmittedTicket ticket) {
+        if ((state != null && ticket.getState() != state) ||
+                (type != null && !ticket.getType().equals(type)) ||
+                (issuerId != 0 && ticket.getIssuerId() != issuerId) ||
+                (assigneeId == UNASSIGNED && ticket.getAssigneeId() != 0) ||
+                (assigneeId > 0 && ticket.getAssigneeId() != assigneeId) ||
+                (submittedBefore != 0 && ticket.getSubmitted() >= submittedBefore))
+            return false;
+
+        if (text == null || ticket.getType().toLowerCase().contains(text))
+            return true;
+
+        for (String answer : ticket.getAnswers()) {
+            if (answer.toLowerCase().contains(text))
+                return true;
+        }
+
+        return false;
+    }
+}
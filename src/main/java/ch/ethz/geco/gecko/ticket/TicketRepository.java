@@ -0,0 +1,273 @@
+package ch.ethz.geco.gecko.ticket;
+
+import ch.ethz.geco.gecko.Metrics;
+import ch.ethz.geco.gecko.state.Namespace;
+import ch.ethz.geco.gecko.state.StateStore;
+
+import java.util.*;
+
+/**
+ * The backlog of submitted tickets, so staff can look up, claim and close them without scrolling the ticket
+ * channel. Tickets are numbered in the order they were submitted and stored in the {@link StateStore}.
+ * <p>
+ * All tickets are kept in memory with indexes by state, type, issuer, assignee and submission time. A query
+ * walks the smallest index which applies and checks the remaining conditions on each ticket.
+ */
+public class TicketRepository {
+    public static final int PAGE_SIZE = 10;
+
+    private static Namespace<SubmittedTicket> stored;
+
+    /**
+     * All tickets by number. Numbers increase with the submission time, so this is ordered by age as well.
+     */
+    private static final NavigableMap<Long, SubmittedTicket> tickets = new TreeMap<>();
+
+    private static final Map<Ticket.State, NavigableSet<Long>> byState = new EnumMap<>(Ticket.State.class);
+    private static final Map<String, NavigableSet<Long>> byType = new HashMap<>();
+    private static final Map<Long, NavigableSet<Long>> byIssuer = new HashMap<>();
+
+    /**
+     * Unclaimed tickets are indexed under assignee 0. A ticket is always claimed when it is closed, so these
+     * are exactly the tickets waiting in the queue.
+     */
+    private static final Map<Long, NavigableSet<Long>> byAssignee = new HashMap<>();
+
+    /**
+     * Maps submission times to the highest ticket number submitted at that time.
+     */
+    private static final NavigableMap<Long, Long> bySubmitted = new TreeMap<>();
+
+    private static long nextId = 1;
+
+    /**
+     * Loads the tickets and builds the indexes. The state store has to be open.
+     */
+    public static synchronized void open() {
+        stored = StateStore.namespace("submitted_tickets", SubmittedTicket.CODEC);
+        stored.entries().values().forEach(TicketRepository::index);
+        nextId = tickets.isEmpty() ? 1 : tickets.lastKey() + 1;
+
+        Metrics.registerGauge("tickets.open", () -> count(byState, Ticket.State.OPEN));
+        Metrics.registerGauge("tickets.queue_length", () -> count(byAssignee, 0L));
+    }
+
+    /**
+     * Drops the tickets from memory, they stay in the state store.
+     */
+    public static synchronized void close() {
+        tickets.clear();
+        byState.clear();
+        byType.clear();
+        byIssuer.clear();
+        byAssignee.clear();
+        bySubmitted.clear();
+        stored = null;
+    }
+
+    /**
+     * Adds a ticket which was just submitted.
+     *
+     * @param ticket the ticket, which has all questions answered
+     * @return the submitted ticket with its number
+     */
+    public static synchronized SubmittedTicket submit(Ticket ticket) {
+        SubmittedTicket submitted = SubmittedTicket.of(nextId++, ticket);
+        save(submitted);
+        Metrics.increment("tickets.submitted");
+        return submitted;
+    }
+
+    /**
+     * Remembers the message which announced the ticket to the staff, such that it can be updated later.
+     *
+     * @param id        the number of the ticket
+     * @param channelId the channel of the message
+     * @param messageId the message
+     */
+    public static synchronized void setMessage(long id, long channelId, long messageId) {
+        SubmittedTicket ticket = tickets.get(id);
+        if (ticket != null)
+            save(ticket.withMessage(channelId, messageId));
+    }
+
+    /**
+     * Assigns an open ticket to a staff member. Claiming a claimed ticket takes it over.
+     *
+     * @param id      the number of the ticket
+     * @param staffId the staff member
+     * @return the updated ticket or null if there is no open ticket with this number
+     */
+    public static synchronized SubmittedTicket claim(long id, long staffId) {
+        SubmittedTicket ticket = tickets.get(id);
+        if (ticket == null || ticket.getState() != Ticket.State.OPEN)
+            return null;
+
+        SubmittedTicket claimed = ticket.withAssignee(staffId);
+        if (ticket.getAssigneeId() == 0) {
+            Metrics.increment("tickets.claimed");
+            Metrics.add("tickets.time_to_claim_ms", claimed.getClaimed() - ticket.getSubmitted());
+        }
+
+        save(claimed);
+        return claimed;
+    }
+
+    /**
+     * Closes an open ticket. An unclaimed ticket is assigned to whoever closes it.
+     *
+     * @param id      the number of the ticket
+     * @param staffId the staff member closing the ticket
+     * @return the updated ticket or null if there is no open ticket with this number
+     */
+    public static synchronized SubmittedTicket close(long id, long staffId) {
+        SubmittedTicket ticket = tickets.get(id);
+        if (ticket == null || ticket.getState() != Ticket.State.OPEN)
+            return null;
+
+        SubmittedTicket closed = ticket.withClosed(staffId);
+        if (ticket.getAssigneeId() == 0) {
+            Metrics.increment("tickets.claimed");
+            Metrics.add("tickets.time_to_claim_ms", closed.getClaimed() - ticket.getSubmitted());
+        }
+
+        Metrics.increment("tickets.closed");
+        save(closed);
+        return closed;
+    }
+
+    /**
+     * Returns the ticket with the given number.
+     *
+     * @param id the number of the ticket
+     * @return the ticket or null if there is none
+     */
+    public static synchronized SubmittedTicket get(long id) {
+        return tickets.get(id);
+    }
+
+    /**
+     * Looks up the tickets matching the given query.
+     *
+     * @param query the query
+     * @param page  the page to return, starting at 1
+     * @return the tickets on the page and the number of matches
+     */
+    public static synchronized Result query(TicketQuery query, int page) {
+        NavigableSet<Long> candidates = tickets.navigableKeySet();
+        for (NavigableSet<Long> index : indexesOf(query)) {
+            if (index.size() < candidates.size())
+                candidates = index;
+        }
+
+        if (query.getSubmittedBefore() != 0) {
+            Map.Entry<Long, Long> last = bySubmitted.lowerEntry(query.getSubmittedBefore());
+            candidates = last != null ? candidates.headSet(last.getValue(), true) : Collections.emptyNavigableSet();
+        }
+
+        int total = 0;
+        int first = (page - 1) * PAGE_SIZE;
+        List<SubmittedTicket> result = new ArrayList<>(PAGE_SIZE);
+        for (Long id : query.isNewestFirst() ? candidates.descendingSet() : candidates) {
+            SubmittedTicket ticket = tickets.get(id);
+            if (!query.matches(ticket))
+                continue;
+
+            if (total >= first && result.size() < PAGE_SIZE)
+                result.add(ticket);
+
+            total++;
+        }
+
+        return new Result(result, total, page);
+    }
+
+    /**
+     * Returns the indexes which restrict the results of the given query.
+     */
+    private static List<NavigableSet<Long>> indexesOf(TicketQuery query) {
+        List<NavigableSet<Long>> indexes = new ArrayList<>();
+        if (query.getState() != null)
+            indexes.add(byState.getOrDefault(query.getState(), Collections.emptyNavigableSet()));
+        if (query.getType() != null)
+            indexes.add(byType.getOrDefault(query.getType(), Collections.emptyNavigableSet()));
+        if (query.getIssuerId() != 0)
+            indexes.add(byIssuer.getOrDefault(query.getIssuerId(), Collections.emptyNavigableSet()));
+        if (query.getAssigneeId() != 0) {
+            long assignee = query.getAssigneeId() == TicketQuery.UNASSIGNED ? 0 : query.getAssigneeId();
+            indexes.add(byAssignee.getOrDefault(assignee, Collections.emptyNavigableSet()));
+        }
+
+        return indexes;
+    }
+
+    private static void save(SubmittedTicket ticket) {
+        index(ticket);
+        stored.put(ticket.getId(), ticket);
+    }
+
+    /**
+     * Adds the ticket to all indexes, replacing the previous version of it.
+     */
+    private static void index(SubmittedTicket ticket) {
+        SubmittedTicket previous = tickets.put(ticket.getId(), ticket);
+        if (previous != null) {
+            remove(byState, previous.getState(), previous.getId());
+            remove(byType, previous.getType(), previous.getId());
+            remove(byIssuer, previous.getIssuerId(), previous.getId());
+            remove(byAssignee, previous.getAssigneeId(), previous.getId());
+        }
+
+        byState.computeIfAbsent(ticket.getState(), key -> new TreeSet<>()).add(ticket.getId());
+        byType.computeIfAbsent(ticket.getType(), key -> new TreeSet<>()).add(ticket.getId());
+        byIssuer.computeIfAbsent(ticket.getIssuerId(), key -> new TreeSet<>()).add(ticket.getId());
+        byAssignee.computeIfAbsent(ticket.getAssigneeId(), key -> new TreeSet<>()).add(ticket.getId());
+        bySubmitted.merge(ticket.getSubmitted(), ticket.getId(), Math::max);
+    }
+
+    private static <K> void remove(Map<K, NavigableSet<Long>> index, K key, long id) {
+        NavigableSet<Long> ids = index.get(key);
+        if (ids == null)
+            return;
+
+        ids.remove(id);
+        if (ids.isEmpty())
+            index.remove(key);
+    }
+
+    private static synchronized <K> long count(Map<K, NavigableSet<Long>> index, K key) {
+        NavigableSet<Long> ids = index.get(key);
+        return ids != null ? ids.size() : 0;
+    }
+
+    /**
+     * One page of the tickets matching a query.
+     */
+    public static class Result {
+        private final List<SubmittedTicket> tickets;
+        private final int total;
+        private final int page;
+
+        Result(List<SubmittedTicket> tickets, int total, int page) {
+            this.tickets = tickets;
+            this.total = total;
+            this.page = page;
+        }
+
+        public List<SubmittedTicket> getTickets() {
+            return tickets;
+        }
+
+        public int getTotal() {
+            return total;
+        }
+
+        public int getPage() {
+            return page;
+        }
+
+        public int getPageCount() {
+            return (total + PAGE_SIZE - 1) / PAGE_SIZE;
+        }
+    }
+}
@@ -1,31 +1,46 @@
 package ch.ethz.geco.gecko.ticket;
 
-public class TicketType {
-    private final Class<? extends Ticket> clazz;
-    private final String name;
-    private final String description;
-    private final String emoji;
+import discord4j.common.util.Snowflake;
 
-    public TicketType(Class<? extends Ticket> clazz, String name, String description, String emoji) {
-        this.clazz = clazz;
-        this.name = name;
-        this.description = description;
-        this.emoji = emoji;
-    }
+import java.util.List;
 
-    public String getName() {
-        return name;
-    }
+/**
+ * A kind of ticket users can open from the ticket spawner. Types are found with the {@link java.util.ServiceLoader},
+ * so a new type can ship in its own jar: implement this interface with a public no-argument constructor and list
+ * the class in {@code META-INF/services/ch.ethz.geco.gecko.ticket.TicketType}. Types can also be added with
+ * {@link TicketManager#registerType(TicketType)}.
+ * <p>
+ * A type is shared by all its tickets, so it must not change after it was registered.
+ */
+public interface TicketType {
+    /**
+     * Returns the name of the type, which also identifies stored tickets of this type.
+     *
+     * @return the name
+     */
+    String getName();
 
-    public Class<? extends Ticket> getTypeClass() {
-        return clazz;
-    }
+    String getDescription();
 
-    public String getDescription() {
-        return description;
-    }
+    /**
+     * Returns the unicode emoji users react with on the ticket spawner to open a ticket of this type.
+     *
+     * @return the emoji
+     */
+    String getEmoji();
 
-    public String getEmoji() {
-        return emoji;
-    }
+    /**
+     * Returns the questions asked to the issuer, in order.
+     *
+     * @return an immutable list of the questions
+     */
+    List<String> getQuestions();
+
+    /**
+     * Creates a new ticket of this type.
+     *
+     * @param issuer the user who opened the ticket
+     * @return the new ticket
+     */
+    Ticket create(Snowflake issuer);
 }
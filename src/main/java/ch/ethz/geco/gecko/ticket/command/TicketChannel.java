@@ -1,13 +1,11 @@
 package ch.ethz.geco.gecko.ticket.command;
 
+import ch.ethz.geco.gecko.ChannelCache;
 import ch.ethz.geco.gecko.ConfigManager;
-import ch.ethz.geco.gecko.GECko;
 import ch.ethz.geco.gecko.command.Command;
 import ch.ethz.geco.gecko.command.CommandUtils;
-import ch.ethz.geco.gecko.ticket.TicketManager;
 import discord4j.common.util.Snowflake;
 import discord4j.core.object.entity.Message;
-import discord4j.core.object.entity.channel.Channel;
 
 import java.util.List;
 import java.util.regex.Matcher;
@@ -20,8 +18,7 @@ public class TicketChannel extends Command {
         this.setName("ticketchannel");
         this.setParams("<channelID | #channel>");
         this.setDescription("Sets the ticket channel.");
-        this.getPermissions().addPermittedRoleID(Snowflake.of(248454555438678017L));
-        this.getPermissions().addPermittedRoleID(Snowflake.of(687777083044134919L));
+        this.getPermissions().setAdminOnly(true);
     }
 
     @Override
@@ -44,15 +41,14 @@ public class TicketChannel extends Command {
             return;
         }
 
-        GECko.discordClient.getChannelById(channelID).subscribe(channel -> {
-            if (channel.getType().equals(Channel.Type.GUILD_TEXT)) {
-                TicketManager.setTicketChannel(channelID);
+        ChannelCache.isTextChannel(channelID).subscribe(isText -> {
+            if (isText) {
                 ConfigManager.setProperty("ticket_channel", channelID.asString());
                 ConfigManager.saveConfig();
 
-                CommandUtils.respond(msg, "The ticket channel was set to <#" + channelID.asLong() + ">");
+                CommandUtils.respond(msg, "The ticket channel was set to <#" + channelID.asLong() + ">").subscribe();
             } else {
-                CommandUtils.respond(msg, "The given channel is not a text channel.");
+                CommandUtils.respond(msg, "The given channel is not a text channel.").subscribe();
             }
         });
     }
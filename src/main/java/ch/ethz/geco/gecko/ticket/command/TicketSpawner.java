@@ -1,12 +1,12 @@
 package ch.ethz.geco.gecko.ticket.command;
 
+import ch.ethz.geco.gecko.ChannelCache;
 import ch.ethz.geco.gecko.GECko;
 import ch.ethz.geco.gecko.command.Command;
 import ch.ethz.geco.gecko.command.CommandUtils;
 import ch.ethz.geco.gecko.ticket.TicketManager;
 import discord4j.common.util.Snowflake;
 import discord4j.core.object.entity.Message;
-import discord4j.core.object.entity.channel.Channel;
 import discord4j.core.object.entity.channel.TextChannel;
 
 import java.util.List;
@@ -20,8 +20,7 @@ public class TicketSpawner extends Command {
         this.setName("ticketspawner");
         this.setParams("<channelID | #channel>");
         this.setDescription("Creates a new ticket spawn message in the given channel.");
-        this.getPermissions().addPermittedRoleID(Snowflake.of(248454555438678017L));
-        this.getPermissions().addPermittedRoleID(Snowflake.of(687777083044134919L));
+        this.getPermissions().setAdminOnly(true);
     }
 
     @Override
@@ -44,11 +43,11 @@ public class TicketSpawner extends Command {
             return;
         }
 
-        GECko.discordClient.getChannelById(channelID).subscribe(channel -> {
-            if (channel.getType().equals(Channel.Type.GUILD_TEXT)) {
-                TicketManager.createSpawner((TextChannel) channel);
+        ChannelCache.isTextChannel(channelID).subscribe(isText -> {
+            if (isText) {
+                GECko.discordClient.getChannelById(channelID).ofType(TextChannel.class).subscribe(TicketManager::createSpawner);
             } else {
-                CommandUtils.respond(msg, "The given channel is not a text channel.");
+                CommandUtils.respond(msg, "The given channel is not a text channel.").subscribe();
             }
         });
     }
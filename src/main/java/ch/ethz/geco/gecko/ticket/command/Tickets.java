@@ -0,0 +1,282 @@
+package ch.ethz.geco.gecko.ticket.command;
+
+import ch.ethz.geco.gecko.command.Command;
+import ch.ethz.geco.gecko.command.CommandUtils;
+import ch.ethz.geco.gecko.ticket.SubmittedTicket;
+import ch.ethz.geco.gecko.ticket.Ticket;
+import ch.ethz.geco.gecko.ticket.TicketManager;
+import ch.ethz.geco.gecko.ticket.TicketQuery;
+import ch.ethz.geco.gecko.ticket.TicketRepository;
+import ch.ethz.geco.gecko.ticket.TicketType;
+import discord4j.common.util.Snowflake;
+import discord4j.core.object.entity.Message;
+import discord4j.core.object.entity.User;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+public class Tickets extends Command {
+    public static Pattern userPattern = Pattern.compile("^(?><@!?(\\d+)>|(\\d+))$");
+    public static Pattern idPattern = Pattern.compile("^#?(\\d{1,18})$");
+    public static Pattern durationPattern = Pattern.compile("^(\\d{1,5})([mhdw])$");
+
+    /**
+     * The maximum length of an embed description.
+     */
+    private static final int MAX_DESCRIPTION_LENGTH = 4096;
+
+    public Tickets() {
+        this.setName("tickets");
+        this.setParams("list [open | unclaimed | mine | closed | @user | type <name> | older <duration>] [page] | search <text> [page] | show <#> | claim <#> | close <#>");
+        this.setDescription("Lists, searches, claims and closes submitted tickets. Open and unclaimed tickets are listed oldest first, `older 2d` lists the open tickets waiting for longer than two days.");
+        this.getPermissions().setAdminOnly(true);
+    }
+
+    @Override
+    public void execute(Message msg, List<String> args) {
+        if (args.isEmpty()) {
+            printUsage(msg).subscribe();
+            return;
+        }
+
+        long staffId = msg.getAuthor().map(User::getId).map(Snowflake::asLong).orElse(0L);
+        switch (args.get(0)) {
+            case "list":
+                list(msg, args, staffId);
+                break;
+            case "search":
+                search(msg, args);
+                break;
+            case "show":
+            case "claim":
+            case "close":
+                update(msg, args, staffId);
+                break;
+            default:
+                printUsage(msg).subscribe();
+        }
+    }
+
+    /**
+     * Handles {@code list [filter] [page]}. The name of a type can span several arguments.
+     */
+    private void list(Message msg, List<String> args, long staffId) {
+        int end = args.size();
+        int page = 1;
+        if (end > 1 && args.get(end - 1).matches("\\d{1,3}")) {
+            page = Math.max(1, Integer.parseInt(args.get(end - 1)));
+            end--;
+        }
+
+        String filter = end > 1 ? args.get(1) : "open";
+        TicketQuery query;
+        switch (filter) {
+            case "open":
+                query = new TicketQuery(Ticket.State.OPEN, null, 0, 0, 0, null, false);
+                break;
+            case "unclaimed":
+                query = new TicketQuery(Ticket.State.OPEN, null, 0, TicketQuery.UNASSIGNED, 0, null, false);
+                break;
+            case "mine":
+                query = new TicketQuery(Ticket.State.OPEN, null, 0, staffId, 0, null, false);
+                break;
+            case "closed":
+                query = new TicketQuery(Ticket.State.CLOSED, null, 0, 0, 0, null, true);
+                break;
+            case "type":
+                String type = findType(String.join(" ", args.subList(2, end)));
+                if (type == null) {
+                    StringBuilder types = new StringBuilder("Unknown ticket type, the types are:");
+                    for (TicketType ticketType : TicketManager.getTicketTypes()) {
+                        types.append("\n- ").append(ticketType.getName());
+                    }
+
+                    CommandUtils.respond(msg, types.toString()).subscribe();
+                    return;
+                }
+
+                query = new TicketQuery(Ticket.State.OPEN, type, 0, 0, 0, null, false);
+                break;
+            case "older":
+                Duration age = end == 3 ? parseDuration(args.get(2)) : null;
+                if (age == null) {
+                    printUsage(msg).subscribe();
+                    return;
+                }
+
+                query = new TicketQuery(Ticket.State.OPEN, null, 0, 0, System.currentTimeMillis() - age.toMillis(), null, false);
+                break;
+            default:
+                Matcher matcher = userPattern.matcher(filter);
+                if (!matcher.find()) {
+                    printUsage(msg).subscribe();
+                    return;
+                }
+
+                long issuerId = Long.parseLong(matcher.group(1) != null ? matcher.group(1) : matcher.group(2));
+                query = new TicketQuery(null, null, issuerId, 0, 0, null, true);
+        }
+
+        respond(msg, TicketRepository.query(query, page), query.isNewestFirst());
+    }
+
+    /**
+     * Handles {@code search <text> [page]}. The text spans all remaining arguments.
+     */
+    private void search(Message msg, List<String> args) {
+        int end = args.size();
+        int page = 1;
+        if (end > 2 && args.get(end - 1).matches("\\d{1,3}")) {
+            page = Math.max(1, Integer.parseInt(args.get(end - 1)));
+            end--;
+        }
+
+        String text = String.join(" ", args.subList(1, end));
+        if (text.isBlank()) {
+            printUsage(msg).subscribe();
+            return;
+        }
+
+        respond(msg, TicketRepository.query(new TicketQuery(null, null, 0, 0, 0, text, true), page), true);
+    }
+
+    /**
+     * Handles {@code show <#>}, {@code claim <#>} and {@code close <#>}.
+     */
+    private void update(Message msg, List<String> args, long staffId) {
+        Matcher matcher = args.size() > 1 ? idPattern.matcher(args.get(1)) : null;
+        if (matcher == null || !matcher.find()) {
+            printUsage(msg).subscribe();
+            return;
+        }
+
+        long id = Long.parseLong(matcher.group(1));
+        SubmittedTicket ticket = TicketRepository.get(id);
+        if (ticket == null) {
+            CommandUtils.respond(msg, "There is no ticket #" + id + ".").subscribe();
+            return;
+        }
+
+        if (!args.get(0).equals("show")) {
+            if (ticket.getState() != Ticket.State.OPEN) {
+                CommandUtils.respond(msg, "Ticket #" + id + " is already closed.").subscribe();
+                return;
+            }
+
+            ticket = args.get(0).equals("claim") ? TicketRepository.claim(id, staffId) : TicketRepository.close(id, staffId);
+            if (ticket == null) {
+                CommandUtils.respond(msg, "Ticket #" + id + " was closed in the meantime.").subscribe();
+                return;
+            }
+
+            TicketManager.updateAnnouncement(ticket);
+        }
+
+        SubmittedTicket shown = ticket;
+        CommandUtils.respond(msg, spec -> {
+            spec.setTitle("**#" + shown.getId() + " " + shown.getType() + "**");
+
+            StringBuilder content = new StringBuilder(render(shown));
+            for (int i = 0; i < shown.getQuestions().size(); i++) {
+                content.append("\n\n__").append(shown.getQuestions().get(i)).append("__\n").append(shown.getAnswers().get(i));
+            }
+
+            spec.setDescription(content.length() > MAX_DESCRIPTION_LENGTH ? content.substring(0, MAX_DESCRIPTION_LENGTH - 1) + "…" : content.toString());
+        }).subscribe();
+    }
+
+    /**
+     * Responds with one page of tickets.
+     */
+    private void respond(Message msg, TicketRepository.Result result, boolean newestFirst) {
+        if (result.getTickets().isEmpty()) {
+            CommandUtils.respond(msg, result.getTotal() == 0 ? "No tickets found." : "There are only " + result.getPageCount() + " pages of tickets.").subscribe();
+            return;
+        }
+
+        StringBuilder content = new StringBuilder();
+        for (SubmittedTicket ticket : result.getTickets()) {
+            content.append("**#").append(ticket.getId()).append("** ").append(ticket.getType()).append(" | ").append(render(ticket)).append("\n");
+        }
+
+        // Mentions in embeds do not notify anyone
+        CommandUtils.respond(msg, spec -> {
+            spec.setTitle("Page " + result.getPage() + "/" + result.getPageCount() + " of " + result.getTotal() + " tickets, " +
+                    (newestFirst ? "newest" : "oldest") + " first");
+            spec.setDescription(content.toString());
+        }).subscribe();
+    }
+
+    /**
+     * Returns the name of the ticket type which is called like or starts with the given text, ignoring the case.
+     *
+     * @param text the name or its beginning
+     * @return the name of the type or null if there is no such type
+     */
+    private static String findType(String text) {
+        if (text.isBlank())
+            return null;
+
+        String prefix = text.toLowerCase();
+        for (TicketType type : TicketManager.getTicketTypes()) {
+            if (type.getName().toLowerCase().startsWith(prefix))
+                return type.getName();
+        }
+
+        return null;
+    }
+
+    /**
+     * Parses durations like {@code 30m}, {@code 2d} or {@code 1w}.
+     *
+     * @param text the text to parse
+     * @return the parsed duration or null if the text is not a valid duration
+     */
+    private static Duration parseDuration(String text) {
+        Matcher matcher = durationPattern.matcher(text);
+        if (!matcher.find())
+            return null;
+
+        long amount = Long.parseLong(matcher.group(1));
+        switch (matcher.group(2)) {
+            case "m":
+                return Duration.ofMinutes(amount);
+            case "h":
+                return Duration.ofHours(amount);
+            case "d":
+                return Duration.ofDays(amount);
+            default:
+                return Duration.ofDays(amount * 7);
+        }
+    }
+
+    /**
+     * Renders who submitted a ticket, how long ago and who takes care of it.
+     */
+    private static String render(SubmittedTicket ticket) {
+        String line = "<@" + ticket.getIssuerId() + "> " + formatAge(System.currentTimeMillis() - ticket.getSubmitted()) + " ago";
+        if (ticket.getState() == Ticket.State.CLOSED)
+            return line + " | closed, handled by <@" + ticket.getAssigneeId() + ">";
+        if (ticket.getAssigneeId() != 0)
+            return line + " | claimed by <@" + ticket.getAssigneeId() + ">";
+
+        return line + " | unclaimed";
+    }
+
+    /**
+     * Formats an age like {@code 45s}, {@code 12m}, {@code 5h} or {@code 3d}.
+     */
+    private static String formatAge(long millis) {
+        long seconds = Math.max(0, millis / 1000);
+        if (seconds < 60)
+            return seconds + "s";
+        if (seconds < 3600)
+            return seconds / 60 + "m";
+        if (seconds < 86400)
+            return seconds / 3600 + "h";
+
+        return seconds / 86400 + "d";
+    }
+}
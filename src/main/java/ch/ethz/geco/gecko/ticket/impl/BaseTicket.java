@@ -1,24 +1,32 @@
 package ch.ethz.geco.gecko.ticket.impl;
 
 import ch.ethz.geco.gecko.ticket.Ticket;
+import ch.ethz.geco.gecko.ticket.TicketType;
 import discord4j.common.util.Snowflake;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
-public abstract class BaseTicket implements Ticket {
+/**
+ * A ticket being filled in. Everything but the answers is shared with the other tickets of its type.
+ */
+public class BaseTicket implements Ticket {
+    private final TicketType type;
     private final Snowflake issuer;
-    protected List<String> questions = new ArrayList<>();
-    protected String name;
-    protected String emoji;
-    protected String description;
-    private List<String> answers = new ArrayList<>();
-    private State state = State.INIT;
-
-    protected BaseTicket(Snowflake issuer) {
+    private final List<String> answers = new ArrayList<>();
+    private volatile State state = State.INIT;
+
+    public BaseTicket(TicketType type, Snowflake issuer) {
+        this.type = type;
         this.issuer = issuer;
     }
 
+    @Override
+    public TicketType getType() {
+        return type;
+    }
+
     @Override
     public Snowflake getIssuer() {
         return issuer;
@@ -26,31 +34,58 @@ public abstract class BaseTicket implements Ticket {
 
     @Override
     public List<String> getAnswers() {
-        return answers;
+        return Collections.unmodifiableList(answers);
+    }
+
+    @Override
+    public void addAnswer(String answer) {
+        if (state != State.INIT || nextQuestion() == null)
+            throw new IllegalStateException("Ticket does not take answers in state " + state);
+
+        answers.add(answer);
     }
 
     @Override
     public List<String> getQuestions() {
-        return questions;
+        return type.getQuestions();
     }
 
     @Override
     public String nextQuestion() {
+        List<String> questions = type.getQuestions();
         return questions.size() > answers.size() ? questions.get(answers.size()) : null;
     }
 
     @Override
     public String getName() {
-        return name;
+        return type.getName();
     }
 
     @Override
     public String getDescription() {
-        return description;
+        return type.getDescription();
     }
 
     @Override
     public String getEmoji() {
-        return emoji;
+        return type.getEmoji();
+    }
+
+    @Override
+    public State getState() {
+        return state;
+    }
+
+    @Override
+    public void open() {
+        if (state != State.INIT || nextQuestion() != null)
+            throw new IllegalStateException("Ticket cannot be opened in state " + state);
+
+        state = State.OPEN;
+    }
+
+    @Override
+    public void close() {
+        state = State.CLOSED;
     }
 }
@@ -0,0 +1,49 @@
+package ch.ethz.geco.gecko.ticket.impl;
+
+import ch.ethz.geco.gecko.ticket.Ticket;
+import ch.ethz.geco.gecko.ticket.TicketType;
+import discord4j.common.util.Snowflake;
+
+import java.util.List;
+
+/**
+ * A ticket type which asks a fixed list of questions.
+ */
+public abstract class BaseTicketType implements TicketType {
+    private final String name;
+    private final String description;
+    private final String emoji;
+    private final List<String> questions;
+
+    protected BaseTicketType(String name, String description, String emoji, String... questions) {
+        this.name = name;
+        this.description = description;
+        this.emoji = emoji;
+        this.questions = List.of(questions);
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public String getDescription() {
+        return description;
+    }
+
+    @Override
+    public String getEmoji() {
+        return emoji;
+    }
+
+    @Override
+    public List<String> getQuestions() {
+        return questions;
+    }
+
+    @Override
+    public Ticket create(Snowflake issuer) {
+        return new BaseTicket(this, issuer);
+    }
+}
@@ -0,0 +1,11 @@
+package ch.ethz.geco.gecko.ticket.impl;
+
+public class GeneralTicketType extends BaseTicketType {
+    public GeneralTicketType() {
+        super("General request",
+                "Submit a general question about the server or mechanics.",
+                "❓",
+                "Please provide your Minecraft username:",
+                "How can we help you?");
+    }
+}
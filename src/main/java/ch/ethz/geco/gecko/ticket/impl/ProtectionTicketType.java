@@ -0,0 +1,14 @@
+package ch.ethz.geco.gecko.ticket.impl;
+
+public class ProtectionTicketType extends BaseTicketType {
+    public ProtectionTicketType() {
+        super("Protect a building / property",
+                "Prevent other players from griefing your buildings or stealing your stuff.",
+                "\uD83C\uDFD7",
+                "Please provide the rough X/Z coordinates of your building / property:",
+                "Please mark the corners of the area with some blocks and state the block type here:",
+                "List all Minecraft usernames of players, which should be allowed to build (separated by commas or spaces):",
+                "Should PvP be allowed?",
+                "Any comments?");
+    }
+}
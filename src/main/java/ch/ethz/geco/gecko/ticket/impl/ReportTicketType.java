@@ -0,0 +1,11 @@
+package ch.ethz.geco.gecko.ticket.impl;
+
+public class ReportTicketType extends BaseTicketType {
+    public ReportTicketType() {
+        super("Report a player",
+                "Report a player for offensive behaviour, cheating etc.",
+                "\uD83D\uDC80",
+                "Please provide the Minecraft username of the player, you want to report:",
+                "Why do you want to report the player? (Cheating, offensive behaviour, griefing etc.)");
+    }
+}
@@ -0,0 +1,112 @@
+package ch.ethz.geco.gecko.timer;
+
+/**
+ * A task scheduled with {@link Timers}. The handle can be used to cancel the task before it runs. Cancelling a
+ * task whose subject went away, e.g. a ticket which was completed, frees it right away instead of letting it
+ * run for nothing.
+ */
+public final class Timeout {
+    private static final int PENDING = 0;
+    private static final int EXPIRED = 1;
+    private static final int CANCELLED = 2;
+
+    private final Runnable task;
+    private final long period;
+
+    private long deadline;
+    private int state = PENDING;
+
+    // The list of the slot in the timing wheel
+    Timeout prev;
+    Timeout next;
+
+    Timeout(Runnable task, long deadline, long period) {
+        this.task = task;
+        this.deadline = deadline;
+        this.period = period;
+    }
+
+    static Timeout sentinel() {
+        Timeout sentinel = new Timeout(null, 0, 0);
+        sentinel.prev = sentinel;
+        sentinel.next = sentinel;
+        return sentinel;
+    }
+
+    /**
+     * Cancels the task. A repeated task stops repeating, even if it is running right now.
+     *
+     * @return whether the task was cancelled, false if it already ran or was cancelled before
+     */
+    public boolean cancel() {
+        return Timers.cancel(this);
+    }
+
+    /**
+     * Returns whether the task was cancelled.
+     *
+     * @return whether the task was cancelled
+     */
+    public boolean isCancelled() {
+        synchronized (Timers.lock) {
+            return state == CANCELLED;
+        }
+    }
+
+    /**
+     * Returns whether the task ran. A repeated task never expires, it runs until it is cancelled.
+     *
+     * @return whether the task ran
+     */
+    public boolean isExpired() {
+        synchronized (Timers.lock) {
+            return state == EXPIRED;
+        }
+    }
+
+    Runnable getTask() {
+        return task;
+    }
+
+    long getDeadline() {
+        return deadline;
+    }
+
+    void setDeadline(long deadline) {
+        this.deadline = deadline;
+    }
+
+    long getPeriod() {
+        return period;
+    }
+
+    boolean isPending() {
+        return state == PENDING;
+    }
+
+    void setExpired() {
+        state = EXPIRED;
+    }
+
+    void setCancelled() {
+        state = CANCELLED;
+    }
+
+    boolean isLinked() {
+        return next != null;
+    }
+
+    void linkBefore(Timeout sentinel) {
+        prev = sentinel.prev;
+        next = sentinel;
+        sentinel.prev.next = this;
+        sentinel.prev = this;
+    }
+
+    void unlink() {
+        prev.next = next;
+        next.prev = prev;
+        prev = null;
+        next = null;
+    }
+}
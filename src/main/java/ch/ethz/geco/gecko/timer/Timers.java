@@ -0,0 +1,153 @@
+package ch.ethz.geco.gecko.timer;
+
+import ch.ethz.geco.gecko.ErrorHandler;
+import ch.ethz.geco.gecko.Metrics;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The scheduler for delayed and repeated tasks of all subsystems, like ticket expiry or the deletion of empty
+ * voice channels. All timeouts live in one {@link TimingWheel} which is advanced by a single thread every
+ * {@value #TICK_MILLIS}ms, so a pending timeout costs one small object and no thread.
+ * <p>
+ * The tasks run on the timer thread and should therefore be short, anything which waits for Discord should
+ * be subscribed to instead of blocked on.
+ * <p>
+ * The number of pending timeouts is exposed as {@code timers.pending}, how late the tasks ran in total as
+ * {@code timers.lateness_ms} next to {@code timers.fired}.
+ */
+public class Timers {
+    /**
+     * The resolution of the timers.
+     */
+    static final long TICK_MILLIS = 10;
+
+    private static final long TICK_NANOS = TimeUnit.MILLISECONDS.toNanos(TICK_MILLIS);
+
+    /**
+     * Guards the wheel and the state of all timeouts.
+     */
+    static final Object lock = new Object();
+
+    private static final TimingWheel wheel = new TimingWheel();
+
+    private static final long start = System.nanoTime();
+
+    static {
+        Thread thread = new Thread(Timers::run, "Timers");
+        thread.setDaemon(true);
+        thread.start();
+
+        Metrics.registerGauge("timers.pending", () -> {
+            synchronized (lock) {
+                return wheel.getPending();
+            }
+        });
+    }
+
+    /**
+     * Runs the given task once after the given delay.
+     *
+     * @param task  the task to run
+     * @param delay the delay
+     * @param unit  the unit of the delay
+     * @return the handle to cancel the task
+     */
+    public static Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+        return add(new Timeout(task, currentTick() + toTicks(delay, unit), 0));
+    }
+
+    /**
+     * Runs the given task repeatedly until it is cancelled, waiting the given delay before each run.
+     *
+     * @param task  the task to run
+     * @param delay the delay between the end of a run and the start of the next one
+     * @param unit  the unit of the delay
+     * @return the handle to cancel the task
+     */
+    public static Timeout scheduleWithFixedDelay(Runnable task, long delay, TimeUnit unit) {
+        long period = Math.max(1, toTicks(delay, unit));
+        return add(new Timeout(task, currentTick() + period, period));
+    }
+
+    private static Timeout add(Timeout timeout) {
+        synchronized (lock) {
+            wheel.add(timeout);
+        }
+
+        return timeout;
+    }
+
+    static boolean cancel(Timeout timeout) {
+        synchronized (lock) {
+            if (!timeout.isPending())
+                return false;
+
+            timeout.setCancelled();
+            wheel.remove(timeout);
+        }
+
+        Metrics.increment("timers.cancelled");
+        return true;
+    }
+
+    private static long currentTick() {
+        return (System.nanoTime() - start) / TICK_NANOS;
+    }
+
+    private static long toTicks(long delay, TimeUnit unit) {
+        // Rounded up, a task never runs early
+        return (unit.toNanos(delay) + TICK_NANOS - 1) / TICK_NANOS;
+    }
+
+    private static void run() {
+        List<Timeout> expired = new ArrayList<>();
+        while (true) {
+            long now = currentTick();
+            synchronized (lock) {
+                while (wheel.getTime() < now) {
+                    wheel.tick(expired);
+                }
+
+                for (Timeout timeout : expired) {
+                    if (timeout.getPeriod() == 0)
+                        timeout.setExpired();
+                }
+            }
+
+            for (Timeout timeout : expired) {
+                long lateness = (System.nanoTime() - start) / 1000000 - timeout.getDeadline() * TICK_MILLIS;
+                Metrics.increment("timers.fired");
+                Metrics.add("timers.lateness_ms", Math.max(0, lateness));
+
+                try {
+                    timeout.getTask().run();
+                } catch (Exception e) {
+                    ErrorHandler.handleError(e);
+                }
+
+                if (timeout.getPeriod() > 0) {
+                    synchronized (lock) {
+                        if (timeout.isPending()) {
+                            timeout.setDeadline(currentTick() + timeout.getPeriod());
+                            wheel.add(timeout);
+                        }
+                    }
+                }
+            }
+
+            expired.clear();
+
+            long sleep = (now + 1) * TICK_NANOS - (System.nanoTime() - start);
+            if (sleep > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(sleep);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package ch.ethz.geco.gecko.timer;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A hierarchical timing wheel, counting time in ticks. Level 0 has one slot per tick, each further level has
+ * slots which are as wide as the whole level below. A timeout is put into the lowest level which reaches its
+ * deadline and moves down a level each time the slot it is in comes up, until it expires from level 0. Adding
+ * and removing a timeout only links or unlinks it from the list of its slot, so both take constant time no
+ * matter how many timeouts are pending.
+ * <p>
+ * The wheel is not thread safe, {@link Timers} guards it with a lock.
+ */
+class TimingWheel {
+    private static final int BITS = 6;
+    private static final int SLOTS = 1 << BITS;
+    private static final int MASK = SLOTS - 1;
+
+    /**
+     * With 6 bits per level, 10 levels cover all positive tick counts.
+     */
+    private static final int MAX_LEVELS = 10;
+
+    /**
+     * The slots of each level. Every slot is the sentinel of a circular list of timeouts.
+     */
+    private final List<Timeout[]> levels = new ArrayList<>();
+
+    /**
+     * Timeouts whose deadline already passed when they were added, they expire with the next tick.
+     */
+    private final Timeout due = Timeout.sentinel();
+
+    private long time = 0;
+    private int pending = 0;
+
+    /**
+     * Returns the current tick.
+     *
+     * @return the current tick
+     */
+    long getTime() {
+        return time;
+    }
+
+    /**
+     * Returns how many timeouts are in the wheel.
+     *
+     * @return the number of pending timeouts
+     */
+    int getPending() {
+        return pending;
+    }
+
+    /**
+     * Adds a timeout, which expires with the tick of its deadline.
+     *
+     * @param timeout the timeout to add
+     */
+    void add(Timeout timeout) {
+        insert(timeout);
+        pending++;
+    }
+
+    /**
+     * Removes a timeout before it expires.
+     *
+     * @param timeout the timeout to remove
+     * @return whether the timeout was in the wheel
+     */
+    boolean remove(Timeout timeout) {
+        if (!timeout.isLinked())
+            return false;
+
+        timeout.unlink();
+        pending--;
+        return true;
+    }
+
+    /**
+     * Advances the wheel by one tick.
+     *
+     * @param expired the list to which the expired timeouts are added
+     */
+    void tick(List<Timeout> expired) {
+        time++;
+
+        // From the top down, such that timeouts moved down from a higher level move on in the same tick if needed
+        for (int level = levels.size() - 1; level > 0; level--) {
+            if ((time & ((1L << (BITS * level)) - 1)) == 0) {
+                Timeout slot = levels.get(level)[(int) ((time >>> (BITS * level)) & MASK)];
+                while (slot.next != slot) {
+                    Timeout timeout = slot.next;
+                    timeout.unlink();
+                    insert(timeout);
+                }
+            }
+        }
+
+        if (!levels.isEmpty())
+            expire(levels.get(0)[(int) (time & MASK)], expired);
+
+        expire(due, expired);
+    }
+
+    private void expire(Timeout slot, List<Timeout> expired) {
+        while (slot.next != slot) {
+            Timeout timeout = slot.next;
+            timeout.unlink();
+            pending--;
+            expired.add(timeout);
+        }
+    }
+
+    /**
+     * Puts the timeout into the lowest level where the current tick and the deadline share the slot of the level
+     * above, its slot there comes up before the deadline.
+     */
+    private void insert(Timeout timeout) {
+        long deadline = timeout.getDeadline();
+        if (deadline <= time) {
+            timeout.linkBefore(due);
+            return;
+        }
+
+        int level = 0;
+        while (level < MAX_LEVELS - 1 && (deadline >>> (BITS * (level + 1))) != (time >>> (BITS * (level + 1)))) {
+            level++;
+        }
+
+        while (levels.size() <= level) {
+            Timeout[] slots = new Timeout[SLOTS];
+            for (int i = 0; i < SLOTS; i++) {
+                slots[i] = Timeout.sentinel();
+            }
+
+            levels.add(slots);
+        }
+
+        timeout.linkBefore(levels.get(level)[(int) ((deadline >>> (BITS * level)) & MASK)]);
+    }
+}
@@ -0,0 +1,45 @@
+package ch.ethz.geco.gecko.voice;
+
+import ch.ethz.geco.gecko.state.Codec;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * A voice channel spawner message, stored by its message ID.
+ */
+public class Spawner {
+    public static final Codec<Spawner> CODEC = new Codec<>() {
+        @Override
+        public void write(DataOutput out, Spawner value) throws IOException {
+            out.writeLong(value.channelId);
+            out.writeLong(value.categoryId);
+        }
+
+        @Override
+        public Spawner read(DataInput in) throws IOException {
+            return new Spawner(in.readLong(), in.readLong());
+        }
+    };
+
+    private final long channelId;
+    private final long categoryId;
+
+    /**
+     * @param channelId  the text channel of the spawner message, 0 if unknown
+     * @param categoryId the category where the voice channels are spawned
+     */
+    public Spawner(long channelId, long categoryId) {
+        this.channelId = channelId;
+        this.categoryId = categoryId;
+    }
+
+    public long getChannelId() {
+        return channelId;
+    }
+
+    public long getCategoryId() {
+        return categoryId;
+    }
+}
@@ -1,7 +1,16 @@
 package ch.ethz.geco.gecko.voice;
 
 import ch.ethz.geco.gecko.ConfigManager;
+import ch.ethz.geco.gecko.ErrorHandler;
+import ch.ethz.geco.gecko.GECko;
+import ch.ethz.geco.gecko.ReactionSeeder;
+import ch.ethz.geco.gecko.Shutdown;
 import ch.ethz.geco.gecko.command.CommandRegistry;
+import ch.ethz.geco.gecko.state.Codec;
+import ch.ethz.geco.gecko.state.Namespace;
+import ch.ethz.geco.gecko.state.StateStore;
+import ch.ethz.geco.gecko.timer.Timeout;
+import ch.ethz.geco.gecko.timer.Timers;
 import ch.ethz.geco.gecko.voice.command.VCSpawner;
 import discord4j.common.util.Snowflake;
 import discord4j.core.event.domain.VoiceStateUpdateEvent;
@@ -10,11 +19,15 @@ import discord4j.core.object.entity.channel.Category;
 import discord4j.core.object.entity.channel.TextChannel;
 import discord4j.core.object.entity.channel.VoiceChannel;
 import discord4j.core.object.reaction.ReactionEmoji;
+import discord4j.rest.http.client.ClientException;
+import reactor.core.Disposable;
+import reactor.core.Disposables;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
 
 import java.io.*;
 import java.util.*;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 
 import static ch.ethz.geco.gecko.GECko.discordClient;
@@ -33,65 +46,90 @@ public class VoiceChannelSpawner {
     public static final String EMOJI_TEN = "\uD83D\uDD1F";
 
     /**
-     * The scheduler used for delayed voice channel deletion.
+     * The reactions of a spawner in the order they are shown.
      */
-    private static final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(2);
+    private static final List<String> EMOJIS = List.of(EMOJI_INF, EMOJI_TWO, EMOJI_THREE, EMOJI_FOUR, EMOJI_FIVE,
+            EMOJI_SIX, EMOJI_SEVEN, EMOJI_EIGHT, EMOJI_NINE, EMOJI_TEN);
 
     /**
-     * Maps message IDs to category IDs.
+     * How many spawners are fixed up at the same time on startup. The reactions of one spawner are added in order.
      */
-    private static final Map<Snowflake, Snowflake> voiceChannelSpawner = new HashMap<>();
+    private static final int RECONCILE_CONCURRENCY = 4;
 
     /**
-     * A list of all spawned voice channels.
+     * The pending deletion of each spawned channel.
      */
-    private static final List<Snowflake> spawnedChannels = new ArrayList<>();
+    private static final Map<Long, Timeout> expiries = new ConcurrentHashMap<>();
 
     /**
-     * A map of user IDs to the time when they last spawned a voice channel.
-     * This is used to rate-limit users spawning voice channels.
+     * The event subscriptions of the voice channel spawner.
      */
-    private static final Map<Snowflake, Long> lastSpawned = new HashMap<>();
+    private static Disposable.Composite subscriptions;
 
     /**
-     * How many seconds a user must wait to spawn another voice channel.
+     * Maps message IDs to their spawner.
      */
-    private static final int SPAWN_TIMEOUT_SECONDS = 5;
+    private static Namespace<Spawner> voiceChannelSpawner;
 
     /**
-     * How many seconds must pass until a voice channel expires and gets deleted.
+     * Maps all spawned voice channels to the time they were spawned.
+     */
+    private static Namespace<Long> spawnedChannels;
+
+    /**
+     * A map of user IDs to the time when they last spawned a voice channel.
+     * This is used to rate-limit users spawning voice channels.
      */
-    private static final int EXPIRE_TIMEOUT_SECONDS = 10;
+    private static Namespace<Long> lastSpawned;
 
     /**
      * Initializes the voice channel spawner, loading configurations and cleaning up.
-     * This should be called once on startup.
+     * This is called on startup and after {@link #close()} when the subsystems are restarted.
      */
     public static void init() {
         // Voice
         CommandRegistry.registerCommand(new VCSpawner());
 
-        if (ConfigManager.getProperty("vcspawner_list") != null) {
-            String vcspawnerList = ConfigManager.getProperty("vcspawner_list");
+        voiceChannelSpawner = StateStore.namespace("voice_spawners", Spawner.CODEC);
+        spawnedChannels = StateStore.namespace("voice_spawned", Codec.LONG);
+        lastSpawned = StateStore.namespace("voice_rate_limits", Codec.LONG);
 
-            try {
-                ByteArrayInputStream bis = new ByteArrayInputStream(Base64.getDecoder().decode(vcspawnerList));
-                ObjectInputStream ois = new ObjectInputStream(bis);
-                Map<String, String> voiceChannelSpawnerStrings = (Map<String, String>) ois.readObject();
-                ois.close();
-                bis.close();
+        migrateConfig();
 
-                voiceChannelSpawnerStrings.forEach((k, v) -> voiceChannelSpawner.put(Snowflake.of(k), Snowflake.of(v)));
-
-                // TODO: Figure out a way to reset reactions on all spawned channels on init
-            } catch (IOException | ClassNotFoundException e) {
-                e.printStackTrace();
+        // Forget the rate limits which ran out while the bot was offline
+        long cooldown = ConfigManager.get().getVoiceSpawnCooldown().toMillis();
+        lastSpawned.entries().forEach((userId, time) -> {
+            if (time + cooldown <= System.currentTimeMillis()) {
+                lastSpawned.remove(userId);
             }
+        });
+
+        // Clean up the channels which were spawned before the restart
+        for (Long channelId : spawnedChannels.entries().keySet()) {
+            scheduleExpiry(Snowflake.of(channelId));
         }
 
+        // Fixing the reactions is cosmetic, so the spawner does not wait for it
+        reconcileSpawners();
+
         // Register voice channel spawner events
-        discordClient.getEventDispatcher().on(ReactionAddEvent.class).subscribe(VoiceChannelSpawner::handleReaction);
-        discordClient.getEventDispatcher().on(VoiceStateUpdateEvent.class).subscribe(VoiceChannelSpawner::handleVoiceUpdate);
+        subscriptions = Disposables.composite(
+                discordClient.getEventDispatcher().on(ReactionAddEvent.class).subscribe(VoiceChannelSpawner::handleReaction),
+                discordClient.getEventDispatcher().on(VoiceStateUpdateEvent.class).subscribe(VoiceChannelSpawner::handleVoiceUpdate));
+    }
+
+    /**
+     * Stops listening to events and drops the pending deletions. The spawned channels stay in the state store
+     * and are cleaned up by the next {@link #init()}.
+     */
+    public static void close() {
+        if (subscriptions == null)
+            return;
+
+        subscriptions.dispose();
+        expiries.values().forEach(Timeout::cancel);
+        expiries.clear();
+        subscriptions = null;
     }
 
     /**
@@ -116,63 +154,102 @@ public class VoiceChannelSpawner {
                 EMOJI_EIGHT + " : Limited to 8 users\n" +
                 EMOJI_NINE + " : Limited to 9 users\n" +
                 EMOJI_TEN + " : Limited to 10 users\n")
-                .subscribe(message -> {
-                    // Add initial reactions
-                    message.addReaction(ReactionEmoji.unicode(EMOJI_INF)).block();
-                    message.addReaction(ReactionEmoji.unicode(EMOJI_TWO)).block();
-                    message.addReaction(ReactionEmoji.unicode(EMOJI_THREE)).block();
-                    message.addReaction(ReactionEmoji.unicode(EMOJI_FOUR)).block();
-                    message.addReaction(ReactionEmoji.unicode(EMOJI_FIVE)).block();
-                    message.addReaction(ReactionEmoji.unicode(EMOJI_SIX)).block();
-                    message.addReaction(ReactionEmoji.unicode(EMOJI_SEVEN)).block();
-                    message.addReaction(ReactionEmoji.unicode(EMOJI_EIGHT)).block();
-                    message.addReaction(ReactionEmoji.unicode(EMOJI_NINE)).block();
-                    message.addReaction(ReactionEmoji.unicode(EMOJI_TEN)).block();
-
-                    voiceChannelSpawner.put(message.getId(), textChannel.getCategoryId().orElse(Snowflake.of(0)));
-
-                    saveConfig();
-                });
+                // Stored before seeding, so the reconcile on the next startup completes a partially seeded spawner
+                .doOnNext(message -> voiceChannelSpawner.put(message.getId().asLong(), new Spawner(textChannel.getId().asLong(),
+                        textChannel.getCategoryId().map(Snowflake::asLong).orElse(0L))))
+                .flatMap(message -> ReactionSeeder.seed(message, EMOJIS))
+                .subscribe(null, ErrorHandler::handleError);
     }
 
-    private static void saveConfig() {
-        // Save config
-        Map<String, String> serializedSpawnerMap = new HashMap<>();
-        voiceChannelSpawner.forEach((k, v) -> serializedSpawnerMap.put(k.asString(), v.asString()));
+    /**
+     * Adds the reactions which are missing on the spawners, e.g. because they were removed while the bot was
+     * offline. Spawners whose message was deleted are forgotten.
+     */
+    private static void reconcileSpawners() {
+        Flux.fromIterable(voiceChannelSpawner.entries().entrySet())
+                // The channel of spawners from the old config is unknown
+                .filter(entry -> entry.getValue().getChannelId() != 0)
+                .flatMap(entry -> ReactionSeeder.reconcile(Snowflake.of(entry.getValue().getChannelId()), Snowflake.of(entry.getKey()), EMOJIS)
+                        .onErrorResume(ClientException.isStatusCode(404), error -> {
+                            GECko.logger.info("[VoiceChannelSpawner] The message of spawner " + entry.getKey() + " is gone, removing it.");
+                            voiceChannelSpawner.remove(entry.getKey());
+                            return Mono.empty();
+                        }), RECONCILE_CONCURRENCY)
+                .subscribe(null, ErrorHandler::handleError);
+    }
+
+    /**
+     * Moves the spawners from the old {@code vcspawner_list} property into the state store.
+     */
+    private static void migrateConfig() {
+        String vcspawnerList = ConfigManager.getProperty("vcspawner_list");
+        if (vcspawnerList == null)
+            return;
 
         try {
-            ByteArrayOutputStream bos = new ByteArrayOutputStream();
-            ObjectOutputStream oos = new ObjectOutputStream(bos);
-            oos.writeObject(serializedSpawnerMap);
-            oos.close();
-            bos.close();
+            Map<String, String> voiceChannelSpawnerStrings = readLegacyList(Base64.getDecoder().decode(vcspawnerList));
 
-            ConfigManager.setProperty("vcspawner_list", Base64.getEncoder().encodeToString(bos.toByteArray()));
+            // The channel of old spawners is unknown
+            voiceChannelSpawnerStrings.forEach((k, v) -> voiceChannelSpawner.put(Long.parseLong(k), new Spawner(0, Long.parseLong(v))));
+
+            ConfigManager.removeProperty("vcspawner_list");
             ConfigManager.saveConfig();
-        } catch (IOException e) {
-            e.printStackTrace();
+            GECko.logger.info("[VoiceChannelSpawner] Moved " + voiceChannelSpawnerStrings.size() + " spawners from the config to the state store.");
+        } catch (IOException | IllegalArgumentException e) {
+            ErrorHandler.handleError(e);
+        }
+    }
+
+    /**
+     * Reads the {@code HashMap<String, String>} which older versions stored with Java serialization. The stream
+     * comes from the config file, so the filter only lets the map and its strings through.
+     *
+     * @param bytes the serialized map
+     * @return the map
+     */
+    private static Map<String, String> readLegacyList(byte[] bytes) throws IOException {
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+            in.setObjectInputFilter(ObjectInputFilter.Config.createFilter("java.util.HashMap;java.util.Map$Entry;java.lang.String;maxdepth=2;!*"));
+
+            Object list = in.readObject();
+            if (!(list instanceof HashMap))
+                throw new IOException("Not a serialized HashMap");
+
+            Map<String, String> map = new HashMap<>();
+            for (Map.Entry<?, ?> entry : ((HashMap<?, ?>) list).entrySet()) {
+                if (!(entry.getKey() instanceof String) || !(entry.getValue() instanceof String))
+                    throw new IOException("Unexpected entry in serialized HashMap: " + entry);
+
+                map.put((String) entry.getKey(), (String) entry.getValue());
+            }
+
+            return map;
+        } catch (ClassNotFoundException e) {
+            throw new IOException(e);
         }
     }
 
     public static void removeSpawner(Snowflake message) {
-        voiceChannelSpawner.remove(message);
-        saveConfig();
+        voiceChannelSpawner.remove(message.asLong());
     }
 
     public static void clearSpawners() {
         voiceChannelSpawner.clear();
-        saveConfig();
     }
 
     public static void handleReaction(ReactionAddEvent event) {
-        if (!event.getUserId().equals(discordClient.getSelfId()) && voiceChannelSpawner.containsKey(event.getMessageId())) {
+        if (Shutdown.isDraining())
+            return;
+
+        if (!event.getUserId().equals(discordClient.getSelfId()) && voiceChannelSpawner.contains(event.getMessageId().asLong())) {
             // Rate-limiting
-            if (lastSpawned.containsKey(event.getUserId()) && (lastSpawned.get(event.getUserId()) + SPAWN_TIMEOUT_SECONDS * 1000 > System.currentTimeMillis())) {
+            Long userLastSpawned = lastSpawned.get(event.getUserId().asLong());
+            if (userLastSpawned != null && (userLastSpawned + ConfigManager.get().getVoiceSpawnCooldown().toMillis() > System.currentTimeMillis())) {
                 event.getMessage().flatMap(message -> message.removeReaction(event.getEmoji(), event.getUserId())).subscribe();
                 return;
             }
 
-            lastSpawned.put(event.getUserId(), System.currentTimeMillis());
+            lastSpawned.put(event.getUserId().asLong(), System.currentTimeMillis());
 
             if (event.getEmoji().asUnicodeEmoji().isPresent()) {
                 ReactionEmoji.Unicode unicode = event.getEmoji().asUnicodeEmoji().get();
@@ -215,7 +292,7 @@ public class VoiceChannelSpawner {
 
                 if (userLimit != -1) {
                     final int finalUserLimit = userLimit;
-                    Snowflake categoryID = voiceChannelSpawner.get(event.getMessageId());
+                    Snowflake categoryID = Snowflake.of(voiceChannelSpawner.get(event.getMessageId().asLong()).getCategoryId());
                     discordClient.getChannelById(categoryID)
                             .cast(Category.class)
                             .flatMap(category -> category.getGuild())
@@ -226,18 +303,8 @@ public class VoiceChannelSpawner {
                                     spec.setUserLimit(finalUserLimit);
                                 }
                             })).subscribe(voiceChannel -> {
-                        spawnedChannels.add(voiceChannel.getId());
-                        scheduler.schedule(() -> {
-                            // Check if channel is still existing
-                            if (spawnedChannels.contains(voiceChannel.getId())) {
-                                voiceChannel.getVoiceStates().count().subscribe(userCount -> {
-                                    if (userCount == 0) {
-                                        spawnedChannels.remove(voiceChannel.getId());
-                                        voiceChannel.delete().subscribe();
-                                    }
-                                });
-                            }
-                        }, EXPIRE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+                        spawnedChannels.put(voiceChannel.getId().asLong(), System.currentTimeMillis());
+                        scheduleExpiry(voiceChannel.getId());
                     });
                 }
             }
@@ -257,17 +324,49 @@ public class VoiceChannelSpawner {
         }
 
         // Only if it's a temp channel
-        if (spawnedChannels.contains(channelID)) {
-            discordClient.getChannelById(channelID).cast(VoiceChannel.class).subscribe(voiceChannel -> {
-                if (spawnedChannels.contains(voiceChannel.getId())) {
-                    voiceChannel.getVoiceStates().count().subscribe(userCount -> {
-                        if (userCount == 0) {
-                            spawnedChannels.remove(voiceChannel.getId());
-                            voiceChannel.delete().subscribe();
-                        }
-                    });
-                }
-            });
+        if (spawnedChannels.contains(channelID.asLong())) {
+            deleteIfEmpty(channelID);
         }
     }
+
+    /**
+     * Deletes the given spawned channel after the expiry timeout if no one joined it.
+     *
+     * @param channelID the spawned channel
+     */
+    private static void scheduleExpiry(Snowflake channelID) {
+        Timeout previous = expiries.put(channelID.asLong(), Timers.schedule(() -> {
+            expiries.remove(channelID.asLong());
+            deleteIfEmpty(channelID);
+        }, ConfigManager.get().getVoiceExpiry().toMillis(), TimeUnit.MILLISECONDS));
+
+        if (previous != null)
+            previous.cancel();
+    }
+
+    private static void deleteIfEmpty(Snowflake channelID) {
+        // Check if channel is still existing
+        if (!spawnedChannels.contains(channelID.asLong()))
+            return;
+
+        discordClient.getChannelById(channelID).cast(VoiceChannel.class).subscribe(voiceChannel ->
+                voiceChannel.getVoiceStates().count().subscribe(userCount -> {
+                    if (userCount == 0 && spawnedChannels.remove(channelID.asLong()) != null) {
+                        forget(channelID);
+                        Shutdown.track(voiceChannel.delete()).subscribe();
+                    }
+                }), error -> {
+                    spawnedChannels.remove(channelID.asLong());
+                    forget(channelID);
+                });
+    }
+
+    /**
+     * Cancels the pending deletion of a channel which is gone.
+     */
+    private static void forget(Snowflake channelID) {
+        Timeout expiry = expiries.remove(channelID.asLong());
+        if (expiry != null)
+            expiry.cancel();
+    }
 }
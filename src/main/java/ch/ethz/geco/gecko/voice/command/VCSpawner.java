@@ -1,12 +1,12 @@
 package ch.ethz.geco.gecko.voice.command;
 
+import ch.ethz.geco.gecko.ChannelCache;
 import ch.ethz.geco.gecko.GECko;
 import ch.ethz.geco.gecko.command.Command;
 import ch.ethz.geco.gecko.command.CommandUtils;
 import ch.ethz.geco.gecko.voice.VoiceChannelSpawner;
 import discord4j.common.util.Snowflake;
 import discord4j.core.object.entity.Message;
-import discord4j.core.object.entity.channel.Channel;
 import discord4j.core.object.entity.channel.TextChannel;
 
 import java.util.List;
@@ -20,8 +20,7 @@ public class VCSpawner extends Command {
         this.setName("vcspawner");
         this.setParams("<add | remove | clear> [channelID | #channel]");
         this.setDescription("Manages the voice channel spawners.");
-        this.getPermissions().addPermittedRoleID(Snowflake.of(248454555438678017L));
-        this.getPermissions().addPermittedRoleID(Snowflake.of(687777083044134919L));
+        this.getPermissions().setAdminOnly(true);
     }
 
     @Override
@@ -52,11 +51,12 @@ public class VCSpawner extends Command {
                     return;
                 }
 
-                GECko.discordClient.getChannelById(channelID).subscribe(channel -> {
-                    if (channel.getType().equals(Channel.Type.GUILD_TEXT)) {
-                        VoiceChannelSpawner.createSpawner((TextChannel) channel);
+                Snowflake spawnerChannelID = channelID;
+                ChannelCache.isTextChannel(channelID).subscribe(isText -> {
+                    if (isText) {
+                        GECko.discordClient.getChannelById(spawnerChannelID).ofType(TextChannel.class).subscribe(VoiceChannelSpawner::createSpawner);
                     } else {
-                        CommandUtils.respond(msg, "The given channel is not a text channel.");
+                        CommandUtils.respond(msg, "The given channel is not a text channel.").subscribe();
                     }
                 });
                 break;